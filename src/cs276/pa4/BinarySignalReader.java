@@ -0,0 +1,192 @@
+package cs276.pa4;
+
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Reads query groups from a file written by BinarySignalWriter.
+ */
+public class BinarySignalReader extends SignalReader {
+    private static final Charset ASCII = Charset.forName("ISO-8859-1");
+
+    private InputStream in;
+    private byte[] buf = new byte[1 << 16];
+    private int pos = 0;
+    private int limit = 0;
+
+    private List<String> terms = new ArrayList<String>();
+
+    public BinarySignalReader(String binary_file_name) throws IOException {
+        in = new FileInputStream(binary_file_name);
+        for (byte b : BinarySignalWriter.MAGIC) {
+            if (readByte() != b)
+                throw new IOException("Not a binary signal file: " + binary_file_name);
+        }
+        int version = readVarint();
+        if (version != BinarySignalWriter.VERSION)
+            throw new IOException("Unsupported binary signal version " + version + " in " + binary_file_name);
+    }
+
+    /* true if the file starts with the binary signal magic bytes */
+    public static boolean isBinarySignalFile(String file_name) throws IOException {
+        byte[] magic = BinarySignalWriter.MAGIC;
+        FileInputStream in = new FileInputStream(file_name);
+        try {
+            for (byte b : magic) {
+                if (in.read() != b)
+                    return false;
+            }
+            return true;
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public QueryGroup next() throws IOException {
+        if (!fill())
+            return null;
+
+        QueryGroup group = new QueryGroup(new Query(readString()));
+        int numDocs = readVarint();
+        numQuery++;
+        numDoc += numDocs;
+
+        Document[] docs = new Document[numDocs];
+        for (int i = 0; i < numDocs; i++) {
+            docs[i] = new Document();
+            docs[i].url = readString();
+            group.documents.add(docs[i]);
+        }
+        for (Document d : docs)
+            d.title = readString();
+        for (Document d : docs)
+            d.body_length = readSignedVarint();
+        for (Document d : docs)
+            d.page_rank = readSignedVarint();
+
+        for (Document d : docs) {
+            int numHeaders = readVarint();
+            if (numHeaders == 0)
+                continue;
+            d.headers = new ArrayList<String>(numHeaders);
+            for (int h = 0; h < numHeaders; h++)
+                d.headers.add(readString());
+        }
+
+        for (Document d : docs) {
+            int numTerms = readVarint();
+            if (numTerms == 0)
+                continue;
+            d.body_hits = new HashMap<String, List<Integer>>();
+            for (int t = 0; t < numTerms; t++) {
+                String term = readTerm();
+                int numPositions = readVarint();
+                List<Integer> positions = new ArrayList<Integer>(numPositions);
+                int position = 0;
+                for (int p = 0; p < numPositions; p++) {
+                    position += readSignedVarint();
+                    positions.add(position);
+                }
+                d.body_hits.put(term, positions);
+            }
+        }
+
+        for (Document d : docs) {
+            int numAnchors = readVarint();
+            if (numAnchors == 0)
+                continue;
+            d.anchors = new HashMap<String, Integer>();
+            for (int a = 0; a < numAnchors; a++) {
+                String text = readString();
+                d.anchors.put(text, readSignedVarint());
+            }
+        }
+        return group;
+    }
+
+    private String readTerm() throws IOException {
+        int ref = readVarint();
+        if (ref > 0)
+            return terms.get(ref - 1);
+        String term = readString();
+        terms.add(term);
+        return term;
+    }
+
+    private String readString() throws IOException {
+        int len = readVarint() - 1;
+        if (len < 0)
+            return null;
+        if (limit - pos < len) {
+            // compact what is left and make room for the whole string
+            if (buf.length < len)
+                buf = Arrays.copyOfRange(buf, pos, pos + Math.max(len, 2 * buf.length));
+            else
+                System.arraycopy(buf, pos, buf, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+            while (limit < len) {
+                int read = in.read(buf, limit, buf.length - limit);
+                if (read < 0)
+                    throw new EOFException("Truncated binary signal file");
+                limit += read;
+            }
+        }
+        boolean ascii = true;
+        for (int i = pos; i < pos + len; i++) {
+            if (buf[i] < 0) {
+                ascii = false;
+                break;
+            }
+        }
+        String s = new String(buf, pos, len, ascii ? ASCII : BinarySignalWriter.UTF8);
+        pos += len;
+        return s;
+    }
+
+    private int readSignedVarint() throws IOException {
+        int value = readVarint();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private int readVarint() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = readByte();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+        throw new IOException("Malformed varint in binary signal file");
+    }
+
+    private byte readByte() throws IOException {
+        if (!fill())
+            throw new EOFException("Truncated binary signal file");
+        return buf[pos++];
+    }
+
+    /* makes sure at least one byte is buffered; false at end of file */
+    private boolean fill() throws IOException {
+        if (pos < limit)
+            return true;
+        pos = 0;
+        limit = in.read(buf, 0, buf.length);
+        if (limit < 0)
+            limit = 0;
+        return limit > 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
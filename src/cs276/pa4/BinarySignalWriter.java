@@ -0,0 +1,156 @@
+package cs276.pa4;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes query groups in the compact binary signal format read by
+ * BinarySignalReader, and converts text signal files to it.
+ *
+ * Layout: the magic bytes and a version, followed by one record per
+ * query group until end of file. A group is the query string, the number
+ * of documents, then each per-document field as its own column:
+ *   urls, titles, body_length, pagerank, headers, body_hits, anchors.
+ * All integers are varints (zig-zag for values that could be negative).
+ * Strings are a varint of (UTF-8 length + 1), with 0 meaning null.
+ * body_hits terms are dictionary encoded: a reference is id + 1 for a
+ * term already seen, or 0 followed by the term itself, which then takes
+ * the next id. Positions within a term are delta encoded.
+ *
+ * Usage: java cs276.pa4.BinarySignalWriter <signal_file> <binary_out_file>
+ */
+public class BinarySignalWriter implements Closeable {
+    static final byte[] MAGIC = {'P', 'A', '4', 'B'};
+    static final int VERSION = 1;
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private OutputStream out;
+    private TermDictionary dictionary = new TermDictionary();
+
+    public BinarySignalWriter(String out_file_name) throws IOException {
+        out = new BufferedOutputStream(new FileOutputStream(out_file_name), 1 << 16);
+        out.write(MAGIC);
+        writeVarint(VERSION);
+    }
+
+    public void write(QueryGroup group) throws IOException {
+        List<Document> docs = group.documents;
+        writeString(group.query.query);
+        writeVarint(docs.size());
+
+        for (Document d : docs)
+            writeString(d.url);
+        for (Document d : docs)
+            writeString(d.title);
+        for (Document d : docs)
+            writeSignedVarint(d.body_length);
+        for (Document d : docs)
+            writeSignedVarint(d.page_rank);
+
+        for (Document d : docs) {
+            if (d.headers == null) {
+                writeVarint(0);
+                continue;
+            }
+            writeVarint(d.headers.size());
+            for (String header : d.headers)
+                writeString(header);
+        }
+
+        for (Document d : docs) {
+            if (d.body_hits == null) {
+                writeVarint(0);
+                continue;
+            }
+            writeVarint(d.body_hits.size());
+            for (Map.Entry<String, List<Integer>> hit : d.body_hits.entrySet()) {
+                writeTerm(hit.getKey());
+                List<Integer> positions = hit.getValue();
+                writeVarint(positions.size());
+                int previous = 0;
+                for (int position : positions) {
+                    writeSignedVarint(position - previous);
+                    previous = position;
+                }
+            }
+        }
+
+        for (Document d : docs) {
+            if (d.anchors == null) {
+                writeVarint(0);
+                continue;
+            }
+            writeVarint(d.anchors.size());
+            for (Map.Entry<String, Integer> anchor : d.anchors.entrySet()) {
+                writeString(anchor.getKey());
+                writeSignedVarint(anchor.getValue());
+            }
+        }
+    }
+
+    private void writeTerm(String term) throws IOException {
+        int id = dictionary.getId(term);
+        if (id >= 0) {
+            writeVarint(id + 1);
+        } else {
+            dictionary.intern(term);
+            writeVarint(0);
+            writeString(term);
+        }
+    }
+
+    private void writeString(String s) throws IOException {
+        if (s == null) {
+            writeVarint(0);
+            return;
+        }
+        byte[] bytes = s.getBytes(UTF8);
+        writeVarint(bytes.length + 1);
+        out.write(bytes);
+    }
+
+    private void writeSignedVarint(int value) throws IOException {
+        writeVarint((value << 1) ^ (value >> 31));
+    }
+
+    private void writeVarint(int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    /* Converts a text signal file to the binary format */
+    public static void convert(String signal_file_name, String out_file_name) throws IOException {
+        SignalReader reader = new MappedSignalReader(signal_file_name);
+        BinarySignalWriter writer = new BinarySignalWriter(out_file_name);
+        QueryGroup group;
+        while ((group = reader.next()) != null)
+            writer.write(group);
+        writer.close();
+        reader.close();
+        System.err.println("# Converted " + signal_file_name + " -> " + out_file_name + ": number of queries="
+            + reader.getNumQueries() + ", number of documents=" + reader.getNumDocuments()
+            + ", number of terms=" + writer.dictionary.size());
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: <signal_file> <binary_out_file>");
+            return;
+        }
+        convert(args[0], args[1]);
+    }
+}
@@ -0,0 +1,39 @@
+package cs276.pa4;
+
+import weka.classifiers.Classifier;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Scores rows through Classifier.classifyInstance, for models that
+ * cannot be compiled to a weight vector.
+ */
+public class ClassifierScorer extends Scorer {
+    private final Classifier model;
+    private final Instances header;
+
+    /* header describes the attributes of the matrix rows */
+    public ClassifierScorer(Classifier model, Instances header) {
+        this.model = model;
+        this.header = header;
+    }
+
+    @Override
+    public double[] score(FeatureMatrix matrix, int from, int to) {
+        double[] scores = new double[to - from];
+        double[] values = new double[matrix.numAttributes()];
+        for (int r = from; r < to; r++) {
+            for (int c = 0; c < values.length; c++)
+                values[c] = matrix.get(r, c);
+            Instance row = new DenseInstance(1.0, values.clone());
+            row.setDataset(header);
+            try {
+                scores[r - from] = model.classifyInstance(row);
+            } catch (Exception e) {
+                throw new RuntimeException("Error occurred while classifying row " + r, e);
+            }
+        }
+        return scores;
+    }
+}
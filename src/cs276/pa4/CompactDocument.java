@@ -0,0 +1,270 @@
+package cs276.pa4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Primitive-array form of a Document.
+ *
+ * Terms are lower-cased and interned into a shared TermDictionary when the
+ * document is built, so feature extraction only ever compares ints.
+ * Everything except the body positions lives in a single int[] so that a
+ * document costs two arrays instead of maps of boxed Integers. The url is
+ * kept as text and as its non-word-separated tokens; title, header and
+ * anchor text are stored as their whitespace-separated tokens, which is
+ * all the feature extractors look at.
+ *
+ * Layout of fields (all section bounds are indexes into fields itself):
+ *   [0..8)  url length, title length (-1 if no title), #headers, #anchors,
+ *           #body terms, start of header section, start of anchor section,
+ *           start of body section
+ *   url     token ids
+ *   title   token ids
+ *   headers end index of each header, then the token ids of all headers
+ *   anchors end index of each anchor, anchor counts, then all token ids
+ *   body    distinct term ids, then end index of each term's positions in bodyPositions
+ */
+public class CompactDocument {
+    private static final int URL_LENGTH = 0, TITLE_LENGTH = 1, NUM_HEADERS = 2, NUM_ANCHORS = 3, NUM_BODY = 4;
+    private static final int HEADER_BASE = 5, ANCHOR_BASE = 6, BODY_BASE = 7, PREAMBLE = 8;
+
+    public String url = null;
+    public int body_length = 0;
+    public int page_rank = 0;
+    int[] fields;
+    int[] bodyPositions;
+
+    /* term id stored at index i of the fields array (see the ranges below) */
+    public int term(int i) {
+        return fields[i];
+    }
+
+    public int urlStart() {
+        return PREAMBLE;
+    }
+
+    public int urlEnd() {
+        return PREAMBLE + fields[URL_LENGTH];
+    }
+
+    public boolean hasTitle() {
+        return fields[TITLE_LENGTH] >= 0;
+    }
+
+    public int titleStart() {
+        return urlEnd();
+    }
+
+    public int titleEnd() {
+        return urlEnd() + Math.max(0, fields[TITLE_LENGTH]);
+    }
+
+    public int numHeaders() {
+        return fields[NUM_HEADERS];
+    }
+
+    public int headerStart(int h) {
+        int base = fields[HEADER_BASE];
+        return h == 0 ? base + numHeaders() : fields[base + h - 1];
+    }
+
+    public int headerEnd(int h) {
+        return fields[fields[HEADER_BASE] + h];
+    }
+
+    public int numAnchors() {
+        return fields[NUM_ANCHORS];
+    }
+
+    public int anchorStart(int a) {
+        int base = fields[ANCHOR_BASE];
+        return a == 0 ? base + 2 * numAnchors() : fields[base + a - 1];
+    }
+
+    public int anchorEnd(int a) {
+        return fields[fields[ANCHOR_BASE] + a];
+    }
+
+    /* stanford_anchor_count of the a-th anchor */
+    public int anchorCount(int a) {
+        return fields[fields[ANCHOR_BASE] + numAnchors() + a];
+    }
+
+    public int numBodyTerms() {
+        return fields[NUM_BODY];
+    }
+
+    public int bodyTerm(int i) {
+        return fields[fields[BODY_BASE] + i];
+    }
+
+    /* positions of the i-th body term are bodyPosition(bodyPositionsStart(i) .. bodyPositionsEnd(i)) */
+    public int bodyPositionsStart(int i) {
+        return i == 0 ? 0 : fields[fields[BODY_BASE] + numBodyTerms() + i - 1];
+    }
+
+    public int bodyPositionsEnd(int i) {
+        return fields[fields[BODY_BASE] + numBodyTerms() + i];
+    }
+
+    public int bodyPosition(int p) {
+        return bodyPositions[p];
+    }
+
+    /* number of positions recorded for the i-th body term */
+    public int bodyHitCount(int i) {
+        return bodyPositionsEnd(i) - bodyPositionsStart(i);
+    }
+
+    public static CompactDocument from(Document d, TermDictionary dict) {
+        Tokenizer urlTokens = Tokenizer.forUrl(true);
+        Tokenizer textTokens = Tokenizer.forText(true);
+        int[] url = tokenize(urlTokens, d.url, dict);
+        int[] title = d.title == null ? null : tokenize(textTokens, d.title, dict);
+
+        int numHeaders = d.headers == null ? 0 : d.headers.size();
+        int[][] headers = new int[numHeaders][];
+        int headerTokens = 0;
+        for (int h = 0; h < numHeaders; h++) {
+            headers[h] = tokenize(textTokens, d.headers.get(h), dict);
+            headerTokens += headers[h].length;
+        }
+
+        int numAnchors = d.anchors == null ? 0 : d.anchors.size();
+        int[][] anchors = new int[numAnchors][];
+        int[] anchorCounts = new int[numAnchors];
+        int anchorTokens = 0;
+        if (d.anchors != null) {
+            int a = 0;
+            for (Map.Entry<String, Integer> anchor : d.anchors.entrySet()) {
+                anchors[a] = tokenize(textTokens, anchor.getKey(), dict);
+                anchorCounts[a] = anchor.getValue();
+                anchorTokens += anchors[a].length;
+                a++;
+            }
+        }
+
+        int numBody = d.body_hits == null ? 0 : d.body_hits.size();
+        int numPositions = 0;
+        if (d.body_hits != null) {
+            for (List<Integer> positions : d.body_hits.values())
+                numPositions += positions.size();
+        }
+
+        int titleLength = title == null ? 0 : title.length;
+        int headerBase = PREAMBLE + url.length + titleLength;
+        int anchorBase = headerBase + numHeaders + headerTokens;
+        int bodyBase = anchorBase + 2 * numAnchors + anchorTokens;
+
+        CompactDocument c = new CompactDocument();
+        c.url = d.url;
+        c.body_length = d.body_length;
+        c.page_rank = d.page_rank;
+        c.fields = new int[bodyBase + 2 * numBody];
+        c.bodyPositions = new int[numPositions];
+
+        int[] f = c.fields;
+        f[URL_LENGTH] = url.length;
+        f[TITLE_LENGTH] = title == null ? -1 : title.length;
+        f[NUM_HEADERS] = numHeaders;
+        f[NUM_ANCHORS] = numAnchors;
+        f[NUM_BODY] = numBody;
+        f[HEADER_BASE] = headerBase;
+        f[ANCHOR_BASE] = anchorBase;
+        f[BODY_BASE] = bodyBase;
+
+        System.arraycopy(url, 0, f, PREAMBLE, url.length);
+        if (title != null)
+            System.arraycopy(title, 0, f, PREAMBLE + url.length, titleLength);
+
+        int next = headerBase + numHeaders;
+        for (int h = 0; h < numHeaders; h++) {
+            System.arraycopy(headers[h], 0, f, next, headers[h].length);
+            next += headers[h].length;
+            f[headerBase + h] = next;
+        }
+
+        next = anchorBase + 2 * numAnchors;
+        for (int a = 0; a < numAnchors; a++) {
+            System.arraycopy(anchors[a], 0, f, next, anchors[a].length);
+            next += anchors[a].length;
+            f[anchorBase + a] = next;
+            f[anchorBase + numAnchors + a] = anchorCounts[a];
+        }
+
+        if (d.body_hits != null) {
+            int i = 0, p = 0;
+            for (Map.Entry<String, List<Integer>> hit : d.body_hits.entrySet()) {
+                f[bodyBase + i] = dict.intern(hit.getKey().toLowerCase());
+                for (int position : hit.getValue())
+                    c.bodyPositions[p++] = position;
+                f[bodyBase + numBody + i] = p;
+                i++;
+            }
+        }
+        return c;
+    }
+
+    /*
+     * Expands back into a Document. Texts come back lower-cased and
+     * re-joined with single spaces.
+     */
+    public Document toDocument(TermDictionary dict) {
+        Document d = new Document();
+        d.url = url;
+        d.body_length = body_length;
+        d.page_rank = page_rank;
+
+        if (hasTitle())
+            d.title = join(titleStart(), titleEnd(), dict);
+
+        if (numHeaders() > 0) {
+            d.headers = new ArrayList<String>(numHeaders());
+            for (int h = 0; h < numHeaders(); h++)
+                d.headers.add(join(headerStart(h), headerEnd(h), dict));
+        }
+
+        if (numBodyTerms() > 0) {
+            d.body_hits = new HashMap<String, List<Integer>>();
+            for (int i = 0; i < numBodyTerms(); i++) {
+                List<Integer> positions = new ArrayList<Integer>(bodyHitCount(i));
+                for (int p = bodyPositionsStart(i); p < bodyPositionsEnd(i); p++)
+                    positions.add(bodyPositions[p]);
+                d.body_hits.put(dict.getTerm(bodyTerm(i)), positions);
+            }
+        }
+
+        if (numAnchors() > 0) {
+            d.anchors = new HashMap<String, Integer>();
+            for (int a = 0; a < numAnchors(); a++)
+                d.anchors.put(join(anchorStart(a), anchorEnd(a), dict), anchorCount(a));
+        }
+        return d;
+    }
+
+    /* ids of the lower-cased tokens of text */
+    private static int[] tokenize(Tokenizer tokens, String text, TermDictionary dict) {
+        int[] ids = new int[8];
+        int n = 0;
+        tokens.reset(text);
+        while (tokens.next()) {
+            if (n == ids.length)
+                ids = Arrays.copyOf(ids, 2 * n);
+            ids[n++] = dict.intern(tokens);
+        }
+        return Arrays.copyOf(ids, n);
+    }
+
+    private String join(int from, int to, TermDictionary dict) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = from; i < to; i++) {
+            if (i > from)
+                sb.append(' ');
+            sb.append(dict.getTerm(fields[i]));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,198 @@
+package cs276.pa4;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * On-disk cache of extracted feature matrices.
+ *
+ * Feature extraction is a pure function of the signal file, the relevance
+ * file (for training labels), df.txt and the learner's feature set, so a
+ * matrix is stored under a SHA-256 of the contents of those files plus a
+ * feature-set id. Any change to an input, or a bumped feature-set version,
+ * gives a new key; stale entries are simply never read again.
+ *
+ * Entries are columnar (big-endian): magic "PA4F", int version,
+ * int numAttributes, attribute names, int numRows, int numGroups, per
+ * group its start row and query, per row its url, then every column as
+ * numRows doubles.
+ */
+public class FeatureCache {
+    public static final String EXTENSION = ".features";
+
+    private static final int MAGIC = 0x50413446; // "PA4F"
+    private static final int VERSION = 1;
+
+    private final File directory;
+    private final String dfFile;
+    private String dfHash = null;
+
+    /* entries live in directory; features depend on the idfs of dfFile */
+    public FeatureCache(String directory, String dfFile) {
+        this.directory = new File(directory);
+        this.dfFile = dfFile;
+    }
+
+    /* key of the features featureSet extracts from signalFile, labelled from relFile (may be null) */
+    public String key(String featureSet, String signalFile, String relFile) throws IOException {
+        if (dfHash == null)
+            dfHash = contentHash(dfFile);
+        StringBuilder key = new StringBuilder();
+        key.append(featureSet).append('\n');
+        key.append(contentHash(signalFile)).append('\n');
+        key.append(relFile == null ? "-" : contentHash(relFile)).append('\n');
+        key.append(dfHash);
+        return hex(digest().digest(key.toString().getBytes("UTF-8")));
+    }
+
+    /* the matrix stored under key, or null if there is none */
+    public FeatureMatrix load(String key) throws IOException {
+        File file = entry(key);
+        if (!file.exists())
+            return null;
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        try {
+            if (in.readInt() != MAGIC)
+                throw new IOException("Not a feature cache entry: " + file);
+            int version = in.readInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported feature cache version " + version + " in " + file);
+
+            String[] names = new String[in.readInt()];
+            for (int c = 0; c < names.length; c++)
+                names[c] = in.readUTF();
+            int numRows = in.readInt();
+            int numGroups = in.readInt();
+
+            int[] groupOffsets = new int[Math.max(1, numGroups)];
+            String[] groupQueries = new String[groupOffsets.length];
+            for (int g = 0; g < numGroups; g++) {
+                groupOffsets[g] = in.readInt();
+                groupQueries[g] = readString(in);
+            }
+            String[] rowUrls = new String[Math.max(1, numRows)];
+            for (int r = 0; r < numRows; r++)
+                rowUrls[r] = readString(in);
+
+            double[][] columns = new double[names.length][rowUrls.length];
+            byte[] bytes = new byte[8 * numRows];
+            for (double[] column : columns) {
+                in.readFully(bytes);
+                ByteBuffer.wrap(bytes).asDoubleBuffer().get(column, 0, numRows);
+            }
+            return new FeatureMatrix(names, columns, rowUrls, numRows, groupOffsets, groupQueries, numGroups);
+        } finally {
+            in.close();
+        }
+    }
+
+    /* writes matrix under key, replacing any previous entry in one rename */
+    public void store(String key, FeatureMatrix matrix) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Cannot create feature cache directory " + directory);
+        File file = entry(key);
+        File tmp = new File(directory, key + ".tmp");
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(matrix.numAttributes());
+            for (int c = 0; c < matrix.numAttributes(); c++)
+                out.writeUTF(matrix.attributeName(c));
+            int numRows = matrix.numRows();
+            out.writeInt(numRows);
+            out.writeInt(matrix.numGroups());
+            for (int g = 0; g < matrix.numGroups(); g++) {
+                out.writeInt(matrix.groupStart(g));
+                writeString(out, matrix.groupQuery(g));
+            }
+            for (int r = 0; r < numRows; r++)
+                writeString(out, matrix.rowUrl(r));
+
+            ByteBuffer bytes = ByteBuffer.allocate(8 * numRows);
+            for (int c = 0; c < matrix.numAttributes(); c++) {
+                bytes.clear();
+                bytes.asDoubleBuffer().put(matrix.column(c), 0, numRows);
+                out.write(bytes.array(), 0, 8 * numRows);
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file))
+                throw new IOException("Cannot move " + tmp + " to " + file);
+        }
+    }
+
+    private File entry(String key) {
+        return new File(directory, key + EXTENSION);
+    }
+
+    /* strings may be null (unlabelled rows) and longer than writeUTF allows */
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0)
+            return null;
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    /* SHA-256 of the file's bytes, as hex */
+    private static String contentHash(String file_name) throws IOException {
+        MessageDigest digest = digest();
+        RandomAccessFile file = new RandomAccessFile(file_name, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20);
+            while (channel.read(buf) > 0) {
+                buf.flip();
+                digest.update(buf);
+                buf.clear();
+            }
+        } finally {
+            file.close();
+        }
+        return hex(digest.digest());
+    }
+
+    private static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every JRE ships SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(2 * bytes.length);
+        for (byte b : bytes)
+            sb.append(String.format("%02x", b & 0xFF));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,176 @@
+package cs276.pa4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+
+/**
+ * Column-oriented feature matrix of (query, document) rows.
+ *
+ * Each attribute is one primitive double[] column, grown by doubling, and
+ * rows are grouped by query: startGroup() marks where the next query's
+ * rows begin. Groups and rows can be labelled with their query and url.
+ * Learners fill cells in place, so building a matrix of n rows costs a
+ * few array copies instead of n row arrays and Instance objects.
+ * toInstances() converts to Weka only when a Weka classifier needs it.
+ *
+ * Usage:
+ *   FeatureMatrix m = new FeatureMatrix("url_w", ..., "relevance_score");
+ *   m.startGroup(query);
+ *   int row = m.addRow(url);
+ *   m.set(row, 0, urlScore);
+ */
+public class FeatureMatrix {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final String[] attributeNames;
+    private double[][] columns;
+    private int numRows = 0;
+
+    private String[] rowUrls = new String[INITIAL_CAPACITY];
+
+    private int[] groupOffsets = new int[16]; // first row of each group
+    private String[] groupQueries = new String[16];
+    private int numGroups = 0;
+
+    public FeatureMatrix(String... attributeNames) {
+        this.attributeNames = attributeNames.clone();
+        this.columns = new double[attributeNames.length][INITIAL_CAPACITY];
+    }
+
+    /* wraps filled arrays, e.g. read back by FeatureCache */
+    FeatureMatrix(String[] attributeNames, double[][] columns, String[] rowUrls, int numRows,
+         int[] groupOffsets, String[] groupQueries, int numGroups) {
+        this.attributeNames = attributeNames;
+        this.columns = columns;
+        this.rowUrls = rowUrls;
+        this.numRows = numRows;
+        this.groupOffsets = groupOffsets;
+        this.groupQueries = groupQueries;
+        this.numGroups = numGroups;
+    }
+
+    public int numAttributes() {
+        return attributeNames.length;
+    }
+
+    public String attributeName(int col) {
+        return attributeNames[col];
+    }
+
+    public int numRows() {
+        return numRows;
+    }
+
+    /* appends a row of zeros and returns its index */
+    public int addRow() {
+        return addRow(null);
+    }
+
+    /* appends a row of zeros for the document at url and returns its index */
+    public int addRow(String url) {
+        if (numRows == rowUrls.length) {
+            int capacity = 2 * numRows;
+            for (int c = 0; c < columns.length; c++)
+                columns[c] = Arrays.copyOf(columns[c], capacity);
+            rowUrls = Arrays.copyOf(rowUrls, capacity);
+        }
+        rowUrls[numRows] = url;
+        return numRows++;
+    }
+
+    public void set(int row, int col, double value) {
+        columns[col][row] = value;
+    }
+
+    public double get(int row, int col) {
+        return columns[col][row];
+    }
+
+    /* backing array of a column; only the first numRows() entries are rows */
+    public double[] column(int col) {
+        return columns[col];
+    }
+
+    /* url the row was added with, or null */
+    public String rowUrl(int row) {
+        return rowUrls[row];
+    }
+
+    /* rows added from now on belong to a new query group */
+    public void startGroup() {
+        startGroup(null);
+    }
+
+    /* rows added from now on belong to a new group for query */
+    public void startGroup(String query) {
+        if (numGroups == groupOffsets.length) {
+            groupOffsets = Arrays.copyOf(groupOffsets, 2 * numGroups);
+            groupQueries = Arrays.copyOf(groupQueries, 2 * numGroups);
+        }
+        groupQueries[numGroups] = query;
+        groupOffsets[numGroups++] = numRows;
+    }
+
+    /* query the group was started with, or null */
+    public String groupQuery(int g) {
+        return groupQueries[g];
+    }
+
+    public int numGroups() {
+        return numGroups;
+    }
+
+    /* rows of group g are [groupStart(g), groupEnd(g)) */
+    public int groupStart(int g) {
+        return groupOffsets[g];
+    }
+
+    public int groupEnd(int g) {
+        return g + 1 < numGroups ? groupOffsets[g + 1] : numRows;
+    }
+
+    /* the instances of data as the rows of a single group, with the same attributes */
+    public static FeatureMatrix fromInstances(Instances data) {
+        String[] names = new String[data.numAttributes()];
+        for (int c = 0; c < names.length; c++)
+            names[c] = data.attribute(c).name();
+        FeatureMatrix matrix = new FeatureMatrix(names);
+        matrix.startGroup();
+        for (int i = 0; i < data.numInstances(); i++) {
+            int row = matrix.addRow();
+            for (int c = 0; c < names.length; c++)
+                matrix.set(row, c, data.instance(i).value(c));
+        }
+        return matrix;
+    }
+
+    /* copies the matrix into a Weka dataset with classIndex as the target (-1 for none) */
+    public Instances toInstances(String relationName, int classIndex) {
+        Instances dataset = header(relationName, classIndex, numRows);
+        for (int row = 0; row < numRows; row++) {
+            double[] values = new double[columns.length];
+            for (int c = 0; c < columns.length; c++)
+                values[c] = columns[c][row];
+            dataset.add(new DenseInstance(1.0, values));
+        }
+        return dataset;
+    }
+
+    /* an empty Weka dataset with the attributes of the matrix */
+    public Instances header(String relationName, int classIndex) {
+        return header(relationName, classIndex, 0);
+    }
+
+    private Instances header(String relationName, int classIndex, int capacity) {
+        ArrayList<Attribute> attributes = new ArrayList<Attribute>();
+        for (String name : attributeNames)
+            attributes.add(new Attribute(name));
+        Instances dataset = new Instances(relationName, attributes, capacity);
+        dataset.setClassIndex(classIndex);
+        return dataset;
+    }
+}
@@ -1,9 +1,13 @@
 package cs276.pa4;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import cs276.pa4.Util.IdfDictionary;
 
 import weka.classifiers.Classifier;
@@ -36,30 +40,307 @@ public abstract class Learner {
         return sum;
     }
 
-    /////////////////////// Begin PA3 code //////////////////////////////
+    ///////////////////// Row extraction ////////////////////////////
 
-    String[] TFTYPES = {"url", "title", "body", "header", "anchor"};
+    /* documents read before a batch of query groups is featurized */
+    protected static final int BATCH_DOCUMENTS = 1 << 14;
 
-    private String[] splitUrl(String url) {
-        return url.split("\\W+");
+    /**
+     * Populates matrix with rows for a batch of query groups.
+     * Extracts labels into the last column by looking up corresponding
+     * query / url value in labels map.
+     * Uses data from idfs to calculate score.
+     */
+    private void convertToRowsAndInsert(FeatureMatrix matrix, List<QueryGroup> groups,
+        Map<String, Map<String, Double>> labels, IdfDictionary idfs) {
+
+        // fills {url, title, body, header, anchor} of each row
+        int row = extractFeatures(groups, matrix, idfs);
+        int labelColumn = matrix.numAttributes() - 1;
+
+        for (QueryGroup group : groups) {
+            Query q = group.query;
+            for (Document d : group.documents) {
+                if (labels != null) matrix.set(row, labelColumn, labels.get(q.query).get(d.url));
+                else matrix.set(row, labelColumn, 11); // for testing, this value is irrelevant
+                row++;
+            }
+        }
     }
 
-    private String[] splitTitleOrHeader(String sentence) {
-        return sentence.split("\\s+");
+    /**
+     * Reads the signal file a batch of query groups at a time and
+     * featurizes each batch in parallel, so the parsed corpus is never
+     * held in full.
+     */
+    private FeatureMatrix streamRows(String[] attributes, String data_file,
+        Map<String, Map<String, Double>> labels, IdfDictionary idfs) {
+
+        FeatureMatrix matrix = new FeatureMatrix(attributes);
+        try {
+            SignalReader reader = Util.openSignalFile(data_file);
+            List<QueryGroup> batch = new ArrayList<QueryGroup>();
+            int batchDocuments = 0;
+            QueryGroup group;
+            while ((group = reader.next()) != null) {
+                batch.add(group);
+                batchDocuments += group.documents.size();
+                if (batchDocuments >= BATCH_DOCUMENTS) {
+                    convertToRowsAndInsert(matrix, batch, labels, idfs);
+                    batch.clear();
+                    batchDocuments = 0;
+                }
+            }
+            convertToRowsAndInsert(matrix, batch, labels, idfs);
+            reader.close();
+            System.err.println("# Signal file " + data_file + ": number of queries=" + reader.getNumQueries() + ", number of documents=" + reader.getNumDocuments());
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        return matrix;
     }
 
-    private Map<String, Double> createFreqMap(String[] terms) {
-        Map<String, Double> freqMap = new HashMap<String, Double>();
-        for (String term : terms) {
-            if (!freqMap.containsKey(term)) {
-                freqMap.put(term, 1.0);
-            } else {
-                freqMap.put(term, freqMap.get(term) + 1.0);
+    /**
+     * Feature matrix of data_file with one row per document: the field
+     * scores, then the label from rel_file (null for testing) in the last
+     * of attributes. Served from the feature cache when one is set and
+     * holds the same inputs; otherwise extracted and then cached.
+     */
+    protected FeatureMatrix loadRows(String[] attributes, String data_file, String rel_file, IdfDictionary idfs) {
+        String key = featureCacheKey(attributes, data_file, rel_file);
+        FeatureMatrix matrix = loadCachedFeatures(key);
+        if (matrix != null)
+            return matrix;
+
+        // Labels
+        Map<String, Map<String, Double>> relData = null;
+        if (rel_file != null) {
+            try {
+                relData = Util.loadRelData(rel_file);
+            }
+            catch (Exception e) {
+                e.printStackTrace();
+                System.exit(1);
             }
         }
-        return freqMap;
+
+        // Build data, one batch of query groups at a time
+        matrix = streamRows(attributes, data_file, relData, idfs);
+        storeCachedFeatures(key, matrix);
+        return matrix;
+    }
+
+    ///////////////////// Feature cache ////////////////////////////
+
+    /* bump whenever extraction changes, so matrices cached by older code are not reused */
+    protected static final int FEATURE_VERSION = 1;
+
+    /* on-disk cache of extracted matrices; null to always extract */
+    protected FeatureCache featureCache = null;
+
+    public void setFeatureCache(FeatureCache cache) {
+        featureCache = cache;
+    }
+
+    /* cache key of the matrix with attributes built from data_file and rel_file, or null */
+    protected String featureCacheKey(String[] attributes, String data_file, String rel_file) {
+        if (featureCache == null)
+            return null;
+        String featureSet = "features-v" + FEATURE_VERSION + Arrays.toString(attributes);
+        try {
+            return featureCache.key(featureSet, data_file, rel_file);
+        } catch (IOException e) {
+            System.err.println("# Feature cache skipped for " + data_file + ": " + e);
+            return null;
+        }
+    }
+
+    /* the cached matrix for key, or null on a miss */
+    protected FeatureMatrix loadCachedFeatures(String key) {
+        if (key == null)
+            return null;
+        try {
+            FeatureMatrix matrix = featureCache.load(key);
+            System.err.println("# Feature cache " + (matrix == null ? "miss" : "hit") + ": " + key);
+            return matrix;
+        } catch (IOException e) {
+            System.err.println("# Feature cache entry " + key + " unreadable: " + e);
+            return null;
+        }
+    }
+
+    protected void storeCachedFeatures(String key, FeatureMatrix matrix) {
+        if (key == null)
+            return;
+        try {
+            featureCache.store(key, matrix);
+        } catch (IOException e) {
+            System.err.println("# Feature cache entry " + key + " not written: " + e);
+        }
     }
 
+    /*
+     * {query -> {doc -> row}} of a matrix whose groups and rows were
+     * labelled with their query and url. Documents carry only the url.
+     */
+    protected static Map<Query, Map<Document, Integer>> indexRows(FeatureMatrix matrix) {
+        Map<Query, Map<Document, Integer>> index = new HashMap<Query, Map<Document, Integer>>();
+        for (int g = 0; g < matrix.numGroups(); g++) {
+            Map<Document, Integer> rows = new HashMap<Document, Integer>();
+            for (int row = matrix.groupStart(g); row < matrix.groupEnd(g); row++) {
+                Document d = new Document();
+                d.url = matrix.rowUrl(row);
+                rows.put(d, row);
+            }
+            index.put(new Query(matrix.groupQuery(g)), rows);
+        }
+        return index;
+    }
+
+    /* features of the last extract_train_features call, laid out for testing() */
+    protected TestFeatures trainFeatures = null;
+
+    /* the training features for scoring the training data, or null if they were not kept */
+    public TestFeatures getTrainFeatures() {
+        return trainFeatures;
+    }
+
+    /* model as a standalone LinearRanker, or null if this learner's model is not linear */
+    public LinearRanker toLinearRanker(Classifier model) {
+        return null;
+    }
+
+    /* LinearRanker over all attributes but the class, or null if the model is not linear */
+    protected LinearRanker toLinearRanker(Classifier model, String[] attributes, int classIndex) {
+        Scorer scorer = Scorer.forModel(model, new FeatureMatrix(attributes), classIndex);
+        if (!(scorer instanceof LinearScorer))
+            return null;
+        double[] columnWeights = ((LinearScorer) scorer).getWeights();
+        String[] names = new String[attributes.length - 1];
+        double[] weights = new double[names.length];
+        for (int c = 0, f = 0; c < attributes.length; c++) {
+            if (c == classIndex)
+                continue;
+            names[f] = attributes[c];
+            weights[f++] = columnWeights[c];
+        }
+        return new LinearRanker(names, weights, ((LinearScorer) scorer).getBias());
+    }
+
+    /* urls returned per query; -Dpa4.rank.k=K keeps only the top K (0: all) */
+    protected int rankLimit = Integer.getInteger("pa4.rank.k", 0);
+
+    /* urls ordered by score, best first; ties are kept and ordered by url */
+    protected List<String> rank(double[] scores, String[] urls) {
+        Ranking ranking = new Ranking(scores, urls);
+        int[] order = rankLimit > 0 ? ranking.top(rankLimit) : ranking.order();
+        List<String> ranked = new ArrayList<String>(order.length);
+        for (int i : order)
+            ranked.add(urls[i]);
+        return ranked;
+    }
+
+    ////////////////////// Parallel feature extraction /////////////////////
+
+    /* threads used by extractFeatures, overridable with -Dpa4.extract.threads=N */
+    protected int extractParallelism = Integer.getInteger("pa4.extract.threads",
+        Runtime.getRuntime().availableProcessors());
+
+    private ForkJoinPool extractPool = null;
+
+    /*
+     * Appends one group of rows per query to matrix and fills the first
+     * TFTYPES.length columns of each row with the field scores q^T * t_f.
+     * Rows follow the order of groups and their documents; they are
+     * reserved before any work is handed out, so the layout is the same
+     * for any number of threads. Returns the index of the first new row.
+     *
+     * Query groups are featurized in parallel, each worker writing only
+     * the cells of its own rows and counting query terms straight from
+     * the Documents.
+     */
+    protected int extractFeatures(List<QueryGroup> groups, FeatureMatrix matrix, IdfDictionary idfs) {
+        int firstRow = matrix.numRows();
+        PendingGroup[] pending = new PendingGroup[groups.size()];
+        for (int g = 0; g < pending.length; g++) {
+            QueryGroup group = groups.get(g);
+            PendingGroup p = new PendingGroup();
+            p.query = group.query;
+            p.documents = group.documents;
+            p.query.intern(terms);
+            p.queryWeights = getQueryWeights(p.query, idfs);
+
+            matrix.startGroup(p.query.query);
+            p.firstRow = matrix.numRows();
+            for (Document d : p.documents)
+                matrix.addRow(d.url);
+            pending[g] = p;
+        }
+
+        if (extractPool == null)
+            extractPool = new ForkJoinPool(extractParallelism);
+        extractPool.invoke(new ExtractTask(pending, 0, pending.length, matrix));
+
+        return firstRow;
+    }
+
+    /* featurizes one query group into its reserved rows; called from the workers */
+    private void extractGroup(PendingGroup p, FeatureMatrix matrix) {
+        QueryTermCounter counter = new QueryTermCounter(p.query);
+        for (int i = 0; i < p.documents.size(); i++) {
+            double[][] counts = counter.count(p.documents.get(i));
+            for (int t = 0; t < TFTYPES.length; t++)
+                matrix.set(p.firstRow + i, t, dot(p.queryWeights, counts[t]));
+        }
+    }
+
+    /* a query group whose rows are reserved */
+    private static class PendingGroup {
+        Query query;
+        List<Document> documents;
+        double[] queryWeights;
+        int firstRow;
+    }
+
+    /* Splits the group range in half until a single group is left */
+    private class ExtractTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final PendingGroup[] pending;
+        private final int lo, hi; // group indices [lo, hi)
+        private final FeatureMatrix matrix;
+
+        ExtractTask(PendingGroup[] pending, int lo, int hi, FeatureMatrix matrix) {
+            this.pending = pending;
+            this.lo = lo;
+            this.hi = hi;
+            this.matrix = matrix;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= 1) {
+                if (hi > lo)
+                    extractGroup(pending[lo], matrix);
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new ExtractTask(pending, lo, mid, matrix), new ExtractTask(pending, mid, hi, matrix));
+        }
+    }
+
+    /////////////////////// Begin PA3 code //////////////////////////////
+
+    String[] TFTYPES = {"url", "title", "body", "header", "anchor"};
+
+    /* dictionary shared by the loaded queries of this learner */
+    protected TermDictionary terms = new TermDictionary();
+
+    /* idf by term id, NaN until first looked up */
+    private double[] termIdfs = new double[0];
+
     /*
      * Creates mapping of idf scores for each term in a query.
      * Handles duplicates by summing their idf weights
@@ -84,114 +365,117 @@ public abstract class Learner {
     }
 
     /*
-     * Creates the document frequencies for each field.
-     * Returns a mapping of field -> (term -> raw_term_frequencies)
-     * Duplicate terms in the query are handled cumulatively (see note)
+     * Same as getQueryFreqs for a query interned into terms.
+     * Returns the idf weight of each query word, aligned with q.termIds
      */
-    public Map<String, Map<String, Double>> getDocTermFreqs(Document d, Query q) {
-        //map from tf type -> queryWord -> score
-        Map<String, Map<String, Double>> tfs = new HashMap<String, Map<String, Double>>();
-
-        // when calculating raw scores, lower-case terms of all fields
-        String docUrl = d.url.toLowerCase();
-        String docTitle = d.title.toLowerCase();
-        List<String> docHeaders = new ArrayList<String>();
-        if (d.headers != null) {
-            for (String s : d.headers) {
-                docHeaders.add(s.toLowerCase());
-            }
-        }
-        Map<String, List<Integer>> docBodyHits = new HashMap<String, List<Integer>>();
-        if (d.body_hits != null) {
-            for (String term : d.body_hits.keySet()) {
-                docBodyHits.put(term.toLowerCase(), d.body_hits.get(term));
-            }
-        }
-        Map<String, Integer> docAnchors = new HashMap<String, Integer>();
-        if (d.anchors != null) {
-            for (String term : d.anchors.keySet()) {
-                docAnchors.put(term.toLowerCase(), d.anchors.get(term));
-            }
+    public double[] getQueryWeights(Query q, IdfDictionary idfs) {
+        double[] weights = new double[q.termIds.length];
+        for (int k = 0; k < weights.length; k++)
+            weights[k] = termIdf(q.termIds[k], idfs);
+        return weights;
+    }
 
+    /*
+     * idf looked up by term id. Only terms that are actually weighted
+     * (query words) ever reach idfs; the rest of the dictionary is skipped.
+     */
+    protected double termIdf(int termId, IdfDictionary idfs) {
+        if (termId >= termIdfs.length) {
+            double[] grown = new double[Math.max(terms.size(), 2 * termIdfs.length)];
+            System.arraycopy(termIdfs, 0, grown, 0, termIdfs.length);
+            Arrays.fill(grown, termIdfs.length, grown.length, Double.NaN);
+            termIdfs = grown;
         }
-        List<String> queryWords = new ArrayList<String>();
-        for (String word : q.words) {
-            queryWords.add(word.toLowerCase());
+        double idf = termIdfs[termId];
+        if (Double.isNaN(idf)) {
+            idf = idfs.getTermFreq(terms.getTerm(termId));
+            termIdfs[termId] = idf;
         }
+        return idf;
+    }
 
-        // url
-        Map<String, Double> urlMap = createFreqMap(splitUrl(docUrl));
+    /* does q^T * t_f for term counts aligned with the query's term ids */
+    protected double dot(double[] queryWeights, double[] termCounts) {
+        double sum = 0;
+        for (int k = 0; k < queryWeights.length; k++)
+            sum += queryWeights[k] * termCounts[k];
+        return sum;
+    }
 
-        // title
-        Map<String, Double> titleMap = createFreqMap(splitTitleOrHeader(docTitle));
+    /*
+     * Creates the document frequencies for each field.
+     * Returns a mapping of field -> (query word -> raw_term_frequencies)
+     */
+    public Map<String, Map<String, Double>> getDocTermFreqs(Document d, Query q) {
+        return toTermFreqMaps(new QueryTermCounter(q).count(d), q);
+    }
 
-        // headers
-        Map<String, Double> headersMap = new HashMap<String, Double>();
-        for (String header : docHeaders) {
-            String headerTerms[] = splitTitleOrHeader(header);
-            for (String term : headerTerms) {
-                if (!headersMap.containsKey(term)) {
-                    headersMap.put(term, 1.0);
-                } else {
-                    headersMap.put(term, headersMap.get(term) + 1.0);
-                }
-            }
-        }
+    /*
+     * Raw query term counts of a CompactDocument, as counts[field][k] for
+     * field in TFTYPES order and k indexing q.termIds. Both sides were
+     * interned into terms, so counting is done on ids; q must have been
+     * interned into the same dictionary.
+     */
+    public double[][] getDocTermCounts(CompactDocument d, Query q) {
+        return getDocTermCounts(d, q, new double[TFTYPES.length][q.termIds.length]);
+    }
 
-        // body_hits
-        Map<String, Double> bodyMap = new HashMap<String, Double>();
-        for (String term : docBodyHits.keySet()) {
-            double count = 0.0;
-            if (bodyMap.containsKey(term))
-                count = bodyMap.get(term);
-            bodyMap.put(term, count + (double) docBodyHits.get(term).size());
-        }
-
-        // anchors
-        Map<String, Double> anchorsMap = new HashMap<String, Double>();
-        for (String anchor : docAnchors.keySet()) {
-            String anchorTerms[] = anchor.split("\\s+");
-            for (String term : anchorTerms) {
-                double termCount = (double) docAnchors.get(anchor);
-                if (!anchorsMap.containsKey(term)) {
-                    anchorsMap.put(term, termCount);
-                } else {
-                    anchorsMap.put(term, anchorsMap.get(term) + termCount);
-                }
-            }
+    /* getDocTermCounts into a caller-owned buffer, which is cleared first */
+    public double[][] getDocTermCounts(CompactDocument d, Query q, double[][] counts) {
+        int[] queryIds = q.termIds;
+        for (double[] fieldCounts : counts)
+            Arrays.fill(fieldCounts, 0, queryIds.length, 0.0);
+
+        countQueryTerms(counts[0], queryIds, d, d.urlStart(), d.urlEnd(), 1.0);
+        countQueryTerms(counts[1], queryIds, d, d.titleStart(), d.titleEnd(), 1.0);
+        for (int i = 0; i < d.numBodyTerms(); i++) {
+            int k = indexOf(queryIds, d.bodyTerm(i));
+            if (k >= 0)
+                counts[2][k] += d.bodyHitCount(i);
         }
+        for (int h = 0; h < d.numHeaders(); h++)
+            countQueryTerms(counts[3], queryIds, d, d.headerStart(h), d.headerEnd(h), 1.0);
+        for (int a = 0; a < d.numAnchors(); a++)
+            countQueryTerms(counts[4], queryIds, d, d.anchorStart(a), d.anchorEnd(a), d.anchorCount(a));
+        return counts;
+    }
 
-        Map<String, Map<String, Double>> allMaps = new HashMap<String, Map<String, Double>>();
-
-        allMaps.put("url", urlMap);
-        allMaps.put("title", titleMap);
-        allMaps.put("header", headersMap);
-        allMaps.put("body", bodyMap);
-        allMaps.put("anchor", anchorsMap);
+    /* Same as getDocTermFreqs(Document, Query) for a CompactDocument */
+    public Map<String, Map<String, Double>> getDocTermFreqs(CompactDocument d, Query q) {
+        return toTermFreqMaps(getDocTermCounts(d, q), q);
+    }
 
-        for (String type : TFTYPES) {
+    /* map form of counts[field][k]: field -> (query word -> raw count) */
+    private Map<String, Map<String, Double>> toTermFreqMaps(double[][] counts, Query q) {
+        Map<String, Map<String, Double>> tfs = new HashMap<String, Map<String, Double>>();
+        for (int t = 0; t < TFTYPES.length; t++) {
             Map<String, Double> rawCountMap = new HashMap<String, Double>();
-            Map<String, Double> typeCountMap = allMaps.get(type);
-            for (String queryWord : queryWords) {
-                double count = 0.0;
-                if (typeCountMap.containsKey(queryWord))
-                    count = typeCountMap.get(queryWord);
-
-                // handle duplicate words in query
-                // by accumulating scores e.g.
-                // query "hello world hello" is treated
-                // differently from "hello world"
-
-                if (!rawCountMap.containsKey(queryWord))
-                    rawCountMap.put(queryWord, count);
-                else
-                    rawCountMap.put(queryWord, rawCountMap.get(queryWord) + count);
-            }
-            tfs.put(type, rawCountMap);
+            for (int k = 0; k < q.words.size(); k++)
+                rawCountMap.put(q.words.get(k), counts[t][k]);
+            tfs.put(TFTYPES[t], rawCountMap);
         }
         return tfs;
     }
 
+    /* adds weight to counts[k] for every token in d at [from, to) equal to query term k */
+    private void countQueryTerms(double[] counts, int[] queryIds, CompactDocument d,
+         int from, int to, double weight) {
+        for (int i = from; i < to; i++) {
+            int k = indexOf(queryIds, d.term(i));
+            if (k >= 0)
+                counts[k] += weight;
+        }
+    }
+
+    /* queries are a handful of terms, so a linear scan beats hashing */
+    private static int indexOf(int[] ids, int id) {
+        for (int k = 0; k < ids.length; k++) {
+            if (ids[k] == id)
+                return k;
+        }
+        return -1;
+    }
+
     /////////////////////// End PA3 Code //////////////////////////////////
 
 
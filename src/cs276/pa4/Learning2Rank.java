@@ -1,6 +1,6 @@
 package cs276.pa4;
 
-import java.io.File;
+import java.io.BufferedOutputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -9,6 +9,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import cs276.pa4.Util.IdfDictionary;
 
@@ -17,11 +18,9 @@ import weka.core.Instances;
 
 public class Learning2Rank {
 	
-	public static Classifier train(String train_data_file, String train_rel_file, int task, IdfDictionary idfs) {
-	    System.err.println("## Training with feature_file =" + train_data_file + ", rel_file = " + train_rel_file + " ... \n");
-	    Classifier model = null;
+	/* The learner for a task, or null for tasks without one */
+	public static Learner newLearner(int task) {
 	    Learner learner = null;
- 
  		if (task == 1) {
 			learner = new PointwiseLearner();
 		} else if (task == 2) {
@@ -42,52 +41,58 @@ public class Learning2Rank {
 			System.err.println("Extra credit");
 			
 		}
- 		
+		return learner;
+	}
+
+	public static Classifier train(String train_data_file, String train_rel_file, int task, IdfDictionary idfs) {
+		Learner learner = newLearner(task);
+		return train(learner, train_data_file, train_rel_file, idfs);
+	}
+
+	/* Trains with learner, which keeps the training features for getTrainFeatures() */
+	public static Classifier train(Learner learner, String train_data_file, String train_rel_file, IdfDictionary idfs) {
+	    System.err.println("## Training with feature_file =" + train_data_file + ", rel_file = " + train_rel_file + " ... \n");
+
 		/* Step (1): construct your feature matrix here */
 		Instances data = learner.extract_train_features(train_data_file, train_rel_file, idfs);
 		
 		/* Step (2): implement your learning algorithm here */
-		model = learner.training(data);
-	 		
-	    return model;
+		return learner.training(data);
 	  }
 
 	 public static Map<String, List<String>> test(String test_data_file, Classifier model, int task, IdfDictionary idfs){
+		 	Learner learner = newLearner(task);
+	 		return test(learner, test_data_file, model, idfs);
+		}
+
+	 public static Map<String, List<String>> test(Learner learner, String test_data_file, Classifier model, IdfDictionary idfs){
 		 	System.err.println("## Testing with feature_file=" + test_data_file + " ... \n");
-		    Map<String, List<String>> ranked_queries = new HashMap<String, List<String>>();
-		    Learner learner = null;
-	 		if (task == 1) {
-				learner = new PointwiseLearner();
-			} else if (task == 2) {
-			  boolean isLinearKernel = true;
-				learner = new PairwiseLearner(isLinearKernel);
-			} else if (task == 3) {
-				
-				/* 
-				 * @TODO: Your code here, add more features 
-				 * */
-				System.err.println("Task 3");
-				
-			} else if (task == 4) {
-				
-				/* 
-				 * @TODO: Your code here, extra credit 
-				 * */
-				System.err.println("Extra credit");
-				
-			}
-		 
+
 	 		/* Step (1): construct your test feature matrix here */
 	 		TestFeatures tf = learner.extract_test_features(test_data_file, idfs);
 	 		
 	 		/* Step (2): implement your prediction and ranking code here */
-			ranked_queries = learner.testing(tf, model);
-			
-		    return ranked_queries;
+			return learner.testing(tf, model);
 		}
 	
 	
 
+	/* Writes the model for LinearRanker, as JSON if model_file ends in .json and binary otherwise */
+	public static void exportModel(Classifier model, int task, String model_file) {
+		Learner learner = newLearner(task);
+		LinearRanker ranker = learner == null ? null : learner.toLinearRanker(model);
+		if (ranker == null) {
+			System.err.println("# Model of task " + task + " is not linear, not exported");
+			return;
+		}
+		try {
+			ranker.save(model_file);
+			System.err.println("# Exported linear model to " + model_file);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
 	/* This function output the ranking results in expected format */
 	public static void writeRankedResultsToFile(Map<String,List<String>> ranked_queries, PrintStream ps) {
 	    for (String query : ranked_queries.keySet()){
@@ -118,35 +123,69 @@ public class Learning2Rank {
 	      ranked_out_file = args[4];
 	    }
 
-	    /* Populate idfs */
+	    /*
+	     * Populate idfs; -Dpa4.idf=mapped (default), perfect or hashmap picks the store,
+	     * lazy only loads the idfs of terms in the train and test queries
+	     */
 	    String dfFile = "df.txt";
+	    String idfStore = System.getProperty("pa4.idf", "mapped");
 	    IdfDictionary idfs = null;
 	    try {
-	      idfs = Util.loadDFs(dfFile);
+	      if (idfStore.equals("lazy")) {
+	        Set<String> queryTerms = Util.loadQueryTerms(train_data_file);
+	        queryTerms.addAll(Util.loadQueryTerms(test_data_file));
+	        idfs = Util.loadDFs(dfFile, queryTerms);
+	      } else if (idfStore.equals("perfect"))
+	        idfs = PerfectHashIdfDictionary.load(dfFile);
+	      else if (idfStore.equals("hashmap"))
+	        idfs = Util.loadDFs(dfFile);
+	      else
+	        idfs = Util.loadIdfs(dfFile);
 	    } catch(IOException e){
 	      e.printStackTrace();
 	    }
 	    
 	    /* Train & test */
 	    System.err.println("### Running task" + task + "...");		
-	    Classifier model = train(train_data_file, train_rel_file, task, idfs);
+	    Learner learner = newLearner(task);
+
+	    /* -Dpa4.feature.cache=DIR reuses feature matrices extracted from the same inputs */
+	    String featureCacheDir = System.getProperty("pa4.feature.cache");
+	    if (featureCacheDir != null)
+	      learner.setFeatureCache(new FeatureCache(featureCacheDir, dfFile));
+	    Classifier model = train(learner, train_data_file, train_rel_file, idfs);
 
-      /* performance on the training data */
-      Map<String, List<String>> trained_ranked_queries = test(train_data_file, model, task, idfs);
-      String trainOutFile="tmp.train.ranked";
-      writeRankedResultsToFile(trained_ranked_queries, new PrintStream(new FileOutputStream(trainOutFile)));
+	    /* -Dpa4.model.out=FILE exports a linear model for LinearRanker */
+	    String modelOut = System.getProperty("pa4.model.out");
+	    if (modelOut != null)
+	      exportModel(model, task, modelOut);
+
+      /* performance on the training data, scored in memory on the features built for training */
+      TestFeatures trainFeatures = learner.getTrainFeatures();
+      Map<String, List<String>> trained_ranked_queries = trainFeatures != null
+          ? learner.testing(trainFeatures, model)
+          : test(learner, train_data_file, model, idfs);
       NdcgMain ndcg = new NdcgMain(train_rel_file);
-      System.err.println("# Trained NDCG=" + ndcg.score(trainOutFile));
-      (new File(trainOutFile)).delete();
+      System.err.println("# Trained NDCG=" + ndcg.score(trained_ranked_queries));
+
+      /* -Dpa4.train.ranked=FILE keeps the training ranking for debugging */
+      String trainOutFile = System.getProperty("pa4.train.ranked");
+      if (trainOutFile != null) {
+        PrintStream trainOut = new PrintStream(new BufferedOutputStream(new FileOutputStream(trainOutFile)));
+        writeRankedResultsToFile(trained_ranked_queries, trainOut);
+        trainOut.close();
+      }
       
-	    Map<String, List<String>> ranked_queries = test(test_data_file, model, task, idfs);
+	    Map<String, List<String>> ranked_queries = test(learner, test_data_file, model, idfs);
 	    
 	    /* Output results */
 	    if(ranked_out_file.equals("")){ /* output to stdout */
 	      writeRankedResultsToFile(ranked_queries, System.out);
 	    } else { 						/* output to file */
 	      try {
-	        writeRankedResultsToFile(ranked_queries, new PrintStream(new FileOutputStream(ranked_out_file)));
+	        PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(ranked_out_file)));
+	        writeRankedResultsToFile(ranked_queries, out);
+	        out.close();
 	      } catch (FileNotFoundException e) {
 	        e.printStackTrace();
 	      }
@@ -0,0 +1,302 @@
+package cs276.pa4;
+
+import java.util.Arrays;
+
+import weka.classifiers.AbstractClassifier;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Linear RankSVM trained in the primal by truncated Newton.
+ *
+ * Minimizes 1/2 |w|^2 + C * sum over pairs of max(0, 1 - w . (x_better -
+ * x_worse))^2, as in Chapelle and Keerthi, "Efficient algorithms for
+ * ranking with SVMs" (2010). Each Newton step is solved by conjugate
+ * gradient and followed by a backtracking line search.
+ *
+ * The pairs never become difference vectors. A pass scores every
+ * document once (s = X w), walks the PairGenerator to collect a
+ * coefficient per document from the pairs it is in, and maps those back
+ * to feature space (X' a). Training therefore holds a few arrays per
+ * document and per feature, and the model is one weight per feature.
+ *
+ * With ALL pairs the pairs are not even walked: SortedPairLoss gets the
+ * same per-document terms by sorting each query by score, in O(n log n)
+ * per query and pass, so long result lists cost little more than short
+ * ones. Sampled pairs are walked one by one.
+ *
+ * A document scores w . x. No bias is learned, since it cancels in every
+ * difference. The squared hinge is used because Newton steps need a
+ * differentiable loss.
+ */
+public class LinearRankSVM extends AbstractClassifier {
+    private static final long serialVersionUID = 1L;
+
+    /* Armijo constant and the largest number of halvings of a line search */
+    private static final double SUFFICIENT_DECREASE = 1e-4;
+    private static final int MAX_HALVINGS = 30;
+
+    private double cost = 1.0;
+    private double eps = 1e-3;
+    private int maxIterations = 100;
+    private int maxCgIterations = 50;
+
+    /* terms of all pairs by sorting while training on ALL pairs, else null */
+    private transient SortedPairLoss sortedPairs = null;
+
+    private double[] weights = null; // one per matrix column, 0 for the label
+    private int iterations = 0;
+    private int cgIterations = 0;
+    private double objective = Double.NaN;
+
+    public void setCost(double cost) {
+        this.cost = cost;
+    }
+
+    public double getCost() {
+        return cost;
+    }
+
+    /* stops once the gradient norm is eps times its initial value */
+    public void setEps(double eps) {
+        this.eps = eps;
+    }
+
+    public void setMaxIterations(int maxIterations) {
+        this.maxIterations = maxIterations;
+    }
+
+    /* trains on the pairs of a matrix whose label column is pairs.getLabelColumn() */
+    public void train(PairGenerator pairs) {
+        FeatureMatrix matrix = pairs.getMatrix();
+        int n = matrix.numRows();
+        int numColumns = matrix.numAttributes();
+        int labelColumn = pairs.getLabelColumn();
+
+        double[] w = new double[numColumns];
+        double[] scores = new double[n];      // X w
+        double[] coef = new double[n];        // per-document pair coefficients
+        double[] g = new double[numColumns];
+
+        if (pairs.getSampling() == PairGenerator.Sampling.ALL)
+            sortedPairs = new SortedPairLoss(matrix, labelColumn);
+
+        double f = lossTerms(pairs, scores, coef) + 0.5 * dot(w, w);
+        gradient(matrix, labelColumn, w, coef, g);
+        double gnorm0 = Math.sqrt(dot(g, g));
+
+        double[] step = new double[numColumns];
+        double[] stepScores = new double[n];  // X step
+        double[] trial = new double[numColumns];
+        double[] trialScores = new double[n];
+
+        iterations = 0;
+        cgIterations = 0;
+        while (iterations < maxIterations && Math.sqrt(dot(g, g)) > eps * gnorm0) {
+            newtonStep(pairs, scores, g, step);
+            score(matrix, labelColumn, step, stepScores);
+
+            // backtrack from the full Newton step until f decreases enough
+            double slope = dot(g, step);
+            double t = 1.0, fTrial = f;
+            for (int h = 0; h < MAX_HALVINGS; h++, t *= 0.5) {
+                for (int c = 0; c < numColumns; c++)
+                    trial[c] = w[c] + t * step[c];
+                for (int r = 0; r < n; r++)
+                    trialScores[r] = scores[r] + t * stepScores[r];
+                fTrial = lossTerms(pairs, trialScores, coef) + 0.5 * dot(trial, trial);
+                if (fTrial <= f + SUFFICIENT_DECREASE * t * slope)
+                    break;
+            }
+            iterations++;
+            if (!(fTrial < f))
+                break; // no progress left at double precision
+
+            System.arraycopy(trial, 0, w, 0, numColumns);
+            System.arraycopy(trialScores, 0, scores, 0, n);
+            f = fTrial;
+            gradient(matrix, labelColumn, w, coef, g);
+        }
+        objective = f;
+        weights = w;
+        sortedPairs = null;
+    }
+
+    /*
+     * Solves (I + 2C sum over active pairs of x x') step = -g by conjugate
+     * gradient, stopping early once the residual is a tenth of |g|.
+     */
+    private void newtonStep(PairGenerator pairs, double[] scores, double[] g, double[] step) {
+        FeatureMatrix matrix = pairs.getMatrix();
+        int labelColumn = pairs.getLabelColumn();
+        int numColumns = g.length;
+        double[] r = new double[numColumns];
+        double[] d = new double[numColumns];
+        double[] hd = new double[numColumns];
+        double[] dScores = new double[matrix.numRows()];
+        double[] coef = new double[matrix.numRows()];
+
+        for (int c = 0; c < numColumns; c++) {
+            step[c] = 0;
+            r[c] = -g[c];
+            d[c] = r[c];
+        }
+        double rr = dot(r, r);
+        double tolerance = 0.1 * Math.sqrt(dot(g, g));
+        for (int k = 0; k < maxCgIterations && Math.sqrt(rr) > tolerance; k++) {
+            // hd = d + 2C X' (per-document sums of the active pairs' d-differences)
+            score(matrix, labelColumn, d, dScores);
+            hessianTerms(pairs, scores, dScores, coef);
+            featureSums(matrix, labelColumn, coef, hd);
+            for (int c = 0; c < numColumns; c++)
+                hd[c] = d[c] + 2 * cost * hd[c];
+
+            double dhd = dot(d, hd);
+            if (dhd <= 0)
+                break;
+            double alpha = rr / dhd;
+            for (int c = 0; c < numColumns; c++) {
+                step[c] += alpha * d[c];
+                r[c] -= alpha * hd[c];
+            }
+            double rrNew = dot(r, r);
+            for (int c = 0; c < numColumns; c++)
+                d[c] = r[c] + (rrNew / rr) * d[c];
+            rr = rrNew;
+            cgIterations++;
+        }
+    }
+
+    /*
+     * C times the squared hinge over all pairs, for document scores s.
+     * Fills coef[r] with the sum, over the violated pairs of document r,
+     * of (1 - margin), positive when r is the better document and
+     * negative when it is the worse one.
+     */
+    private double lossTerms(PairGenerator pairs, double[] scores, double[] coef) {
+        if (sortedPairs != null)
+            return cost * sortedPairs.lossTerms(scores, coef);
+
+        Arrays.fill(coef, 0.0);
+        double loss = 0;
+        pairs.reset();
+        while (pairs.next()) {
+            int b = pairs.better(), o = pairs.worse();
+            double slack = 1 - (scores[b] - scores[o]);
+            if (slack > 0) {
+                loss += slack * slack;
+                coef[b] += slack;
+                coef[o] -= slack;
+            }
+        }
+        return cost * loss;
+    }
+
+    /*
+     * For a direction whose document scores are dScores, fills coef[r]
+     * with the sum over the violated pairs (at scores) of document r of
+     * the pair's direction difference, signed as in lossTerms.
+     */
+    private void hessianTerms(PairGenerator pairs, double[] scores, double[] dScores, double[] coef) {
+        if (sortedPairs != null) {
+            sortedPairs.hessianTerms(scores, dScores, coef);
+            return;
+        }
+
+        Arrays.fill(coef, 0.0);
+        pairs.reset();
+        while (pairs.next()) {
+            int b = pairs.better(), o = pairs.worse();
+            if (scores[b] - scores[o] < 1) {
+                double dd = dScores[b] - dScores[o];
+                coef[b] += dd;
+                coef[o] -= dd;
+            }
+        }
+    }
+
+    /* gradient of the objective: w - 2C X' coef */
+    private void gradient(FeatureMatrix matrix, int labelColumn, double[] w, double[] coef, double[] g) {
+        featureSums(matrix, labelColumn, coef, g);
+        for (int c = 0; c < g.length; c++)
+            g[c] = w[c] - 2 * cost * g[c];
+    }
+
+    /* scores[r] = v . x_r over the feature columns */
+    private static void score(FeatureMatrix matrix, int labelColumn, double[] v, double[] scores) {
+        Arrays.fill(scores, 0, matrix.numRows(), 0.0);
+        for (int c = 0; c < v.length; c++) {
+            if (c == labelColumn || v[c] == 0)
+                continue;
+            double[] column = matrix.column(c);
+            for (int r = 0; r < matrix.numRows(); r++)
+                scores[r] += v[c] * column[r];
+        }
+    }
+
+    /* out[c] = sum over documents of coef[r] * x_rc, 0 for the label column */
+    private static void featureSums(FeatureMatrix matrix, int labelColumn, double[] coef, double[] out) {
+        for (int c = 0; c < out.length; c++) {
+            out[c] = 0;
+            if (c == labelColumn)
+                continue;
+            double[] column = matrix.column(c);
+            for (int r = 0; r < matrix.numRows(); r++)
+                out[c] += coef[r] * column[r];
+        }
+    }
+
+    private static double dot(double[] a, double[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++)
+            sum += a[i] * b[i];
+        return sum;
+    }
+
+    /* one weight per matrix column, 0 for the label column */
+    public double[] getWeights() {
+        return weights.clone();
+    }
+
+    /* Newton steps taken by the last train() */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /* conjugate gradient steps taken by the last train(), over all Newton steps */
+    public int getCgIterations() {
+        return cgIterations;
+    }
+
+    /* objective value reached by the last train() */
+    public double getObjective() {
+        return objective;
+    }
+
+    /* takes all instances as the documents of one query, labelled by the class */
+    @Override
+    public void buildClassifier(Instances data) throws Exception {
+        train(new PairGenerator(FeatureMatrix.fromInstances(data), data.classIndex()));
+    }
+
+    /* w . x of a document */
+    @Override
+    public double classifyInstance(Instance instance) {
+        double score = 0;
+        for (int c = 0; c < weights.length; c++) {
+            if (weights[c] != 0)
+                score += weights[c] * instance.value(c);
+        }
+        return score;
+    }
+
+    @Override
+    public String toString() {
+        if (weights == null)
+            return "LinearRankSVM: not trained";
+        StringBuilder sb = new StringBuilder("LinearRankSVM (C=" + cost + "):");
+        for (double weight : weights)
+            sb.append(' ').append(weight);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,330 @@
+package cs276.pa4;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import cs276.pa4.Util.IdfDictionary;
+
+/**
+ * A linear ranking model, score = w . x + b, that runs without Weka or
+ * libsvm on the classpath.
+ *
+ * The model is a few named weights saved as a small binary or JSON file
+ * (see save). rank() computes the per-field query-document scores of
+ * PointwiseLearner with a QueryTermCounter and orders documents with a
+ * Ranking, so serving needs nothing but this package's plain classes, an
+ * IdfDictionary and the model file.
+ *
+ * Binary layout (big-endian): magic "PA4W", int version, int numFeatures,
+ * then per feature its modified-UTF-8 name and double weight, then the
+ * double bias. JSON layout:
+ *   {"version": 1, "features": ["url_w", ...], "weights": [...], "bias": b}
+ *
+ * Usage: java cs276.pa4.LinearRanker <model_file> <signal_file> [df_file]
+ */
+public class LinearRanker {
+    private static final int MAGIC = 0x50413457; // "PA4W"
+    private static final int VERSION = 1;
+
+    /* the features rank() computes, in order */
+    public static final String[] FIELD_FEATURES = {"url_w", "title_w", "body_w", "header_w", "anchor_w"};
+
+    private final String[] featureNames;
+    private final double[] weights;
+    private final double bias;
+
+    public LinearRanker(String[] featureNames, double[] weights, double bias) {
+        if (featureNames.length != weights.length)
+            throw new IllegalArgumentException(featureNames.length + " feature names for " + weights.length + " weights");
+        this.featureNames = featureNames.clone();
+        this.weights = weights.clone();
+        this.bias = bias;
+    }
+
+    public String[] getFeatureNames() {
+        return featureNames.clone();
+    }
+
+    public double[] getWeights() {
+        return weights.clone();
+    }
+
+    public double getBias() {
+        return bias;
+    }
+
+    public double score(double[] features) {
+        double score = bias;
+        for (int f = 0; f < weights.length; f++)
+            score += weights[f] * features[f];
+        return score;
+    }
+
+    /*
+     * Ranks the documents of q, best first. The model must be over
+     * FIELD_FEATURES; ties are ordered by url.
+     */
+    public List<String> rank(Query q, List<Document> docs, IdfDictionary idfs) {
+        if (!Arrays.equals(featureNames, FIELD_FEATURES))
+            throw new IllegalStateException("model features " + Arrays.toString(featureNames)
+                + " are not " + Arrays.toString(FIELD_FEATURES));
+
+        double[] queryWeights = new double[q.words.size()];
+        for (int k = 0; k < queryWeights.length; k++)
+            queryWeights[k] = idfs.getTermFreq(q.words.get(k));
+
+        QueryTermCounter counter = new QueryTermCounter(q);
+        double[] features = new double[FIELD_FEATURES.length];
+        double[] scores = new double[docs.size()];
+        String[] urls = new String[docs.size()];
+        for (int i = 0; i < scores.length; i++) {
+            double[][] counts = counter.count(docs.get(i));
+            for (int f = 0; f < features.length; f++) {
+                double sum = 0;
+                for (int k = 0; k < queryWeights.length; k++)
+                    sum += queryWeights[k] * counts[f][k];
+                features[f] = sum;
+            }
+            scores[i] = score(features);
+            urls[i] = docs.get(i).url;
+        }
+
+        int[] order = new Ranking(scores, urls).order();
+        List<String> ranked = new ArrayList<String>(order.length);
+        for (int i : order)
+            ranked.add(urls[i]);
+        return ranked;
+    }
+
+    ///////////////////// Model files ////////////////////////////
+
+    /* writes JSON if model_file_name ends in .json, the binary format otherwise */
+    public void save(String model_file_name) throws IOException {
+        if (model_file_name.endsWith(".json")) {
+            PrintStream out = new PrintStream(new FileOutputStream(model_file_name), false, "UTF-8");
+            out.print("{\"version\": " + VERSION + ", \"features\": [");
+            for (int f = 0; f < featureNames.length; f++)
+                out.print((f > 0 ? ", " : "") + quote(featureNames[f]));
+            out.print("], \"weights\": [");
+            for (int f = 0; f < weights.length; f++)
+                out.print((f > 0 ? ", " : "") + weights[f]);
+            out.println("], \"bias\": " + bias + "}");
+            out.close();
+            if (out.checkError())
+                throw new IOException("Could not write " + model_file_name);
+            return;
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(model_file_name)));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(weights.length);
+        for (int f = 0; f < weights.length; f++) {
+            out.writeUTF(featureNames[f]);
+            out.writeDouble(weights[f]);
+        }
+        out.writeDouble(bias);
+        out.close();
+    }
+
+    /* reads a model written by save, in either format */
+    public static LinearRanker load(String model_file_name) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(model_file_name)));
+        try {
+            in.mark(4);
+            if (in.readInt() != MAGIC) {
+                in.reset();
+                return fromJson(new InputStreamReader(in, "UTF-8"), model_file_name);
+            }
+            int version = in.readInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported model version " + version + " in " + model_file_name);
+            int n = in.readInt();
+            String[] names = new String[n];
+            double[] weights = new double[n];
+            for (int f = 0; f < n; f++) {
+                names[f] = in.readUTF();
+                weights[f] = in.readDouble();
+            }
+            return new LinearRanker(names, weights, in.readDouble());
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String quote(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\')
+                sb.append('\\').append(c);
+            else if (c < 0x20)
+                sb.append(String.format("\\u%04x", (int) c));
+            else
+                sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+
+    /* parses the flat JSON object written by save */
+    private static LinearRanker fromJson(Reader reader, String model_file_name) throws IOException {
+        StringBuilder text = new StringBuilder();
+        char[] buf = new char[4096];
+        int read;
+        while ((read = reader.read(buf)) > 0)
+            text.append(buf, 0, read);
+
+        JsonCursor json = new JsonCursor(text.toString(), model_file_name);
+        Map<String, Object> fields = new HashMap<String, Object>();
+        json.expect('{');
+        if (!json.skip('}')) {
+            do {
+                String key = json.string();
+                json.expect(':');
+                fields.put(key, json.value());
+            } while (json.skip(','));
+            json.expect('}');
+        }
+
+        Object version = fields.get("version");
+        if (version == null || ((Double) version).intValue() != VERSION)
+            throw new IOException("Unsupported model version " + version + " in " + model_file_name);
+        List<?> names = json.list(fields, "features");
+        List<?> weights = json.list(fields, "weights");
+        if (!(fields.get("bias") instanceof Double))
+            throw new IOException("Missing bias in " + model_file_name);
+
+        String[] featureNames = new String[names.size()];
+        double[] w = new double[weights.size()];
+        try {
+            for (int f = 0; f < featureNames.length; f++)
+                featureNames[f] = (String) names.get(f);
+            for (int f = 0; f < w.length; f++)
+                w[f] = (Double) weights.get(f);
+            return new LinearRanker(featureNames, w, (Double) fields.get("bias"));
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed model in " + model_file_name + ": " + e.getMessage());
+        }
+    }
+
+    /* just enough JSON for model files: objects are not nested, values are numbers, strings or arrays */
+    private static class JsonCursor {
+        private final String text;
+        private final String file;
+        private int pos = 0;
+
+        JsonCursor(String text, String file) {
+            this.text = text;
+            this.file = file;
+        }
+
+        Object value() throws IOException {
+            whitespace();
+            if (pos < text.length() && text.charAt(pos) == '"')
+                return string();
+            if (skip('[')) {
+                List<Object> values = new ArrayList<Object>();
+                if (!skip(']')) {
+                    do {
+                        values.add(value());
+                    } while (skip(','));
+                    expect(']');
+                }
+                return values;
+            }
+            int start = pos;
+            while (pos < text.length() && "+-.0123456789eE".indexOf(text.charAt(pos)) >= 0)
+                pos++;
+            try {
+                return Double.parseDouble(text.substring(start, pos));
+            } catch (NumberFormatException e) {
+                throw error("expected a value");
+            }
+        }
+
+        String string() throws IOException {
+            expect('"');
+            StringBuilder sb = new StringBuilder();
+            while (pos < text.length() && text.charAt(pos) != '"') {
+                char c = text.charAt(pos++);
+                if (c == '\\' && pos < text.length()) {
+                    c = text.charAt(pos++);
+                    if (c == 'u' && pos + 4 <= text.length()) {
+                        c = (char) Integer.parseInt(text.substring(pos, pos + 4), 16);
+                        pos += 4;
+                    }
+                }
+                sb.append(c);
+            }
+            expect('"');
+            return sb.toString();
+        }
+
+        List<?> list(Map<String, Object> fields, String key) throws IOException {
+            Object value = fields.get(key);
+            if (!(value instanceof List))
+                throw new IOException("Missing " + key + " in " + file);
+            return (List<?>) value;
+        }
+
+        boolean skip(char c) {
+            whitespace();
+            if (pos < text.length() && text.charAt(pos) == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        void expect(char c) throws IOException {
+            if (!skip(c))
+                throw error("expected '" + c + "'");
+        }
+
+        private void whitespace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos)))
+                pos++;
+        }
+
+        private IOException error(String message) {
+            return new IOException("Malformed model in " + file + " at offset " + pos + ": " + message);
+        }
+    }
+
+    ///////////////////// Standalone ranking ////////////////////////////
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2 && args.length != 3) {
+            System.err.println("Usage: <model_file> <signal_file> [df_file]");
+            return;
+        }
+        long start = System.nanoTime();
+        LinearRanker ranker = load(args[0]);
+        IdfDictionary idfs = Util.loadIdfs(args.length == 3 ? args[2] : "df.txt");
+        System.err.println("# Model and idfs loaded in " + (System.nanoTime() - start) / 1000000 + " ms");
+
+        SignalReader reader = Util.openSignalFile(args[1]);
+        if (reader == null)
+            return;
+        QueryGroup group;
+        while ((group = reader.next()) != null) {
+            System.out.println("query: " + group.query);
+            for (String url : ranker.rank(group.query, group.documents, idfs))
+                System.out.println("  url: " + url);
+        }
+        reader.close();
+    }
+}
@@ -0,0 +1,53 @@
+package cs276.pa4;
+
+import java.util.Arrays;
+
+/**
+ * Scores rows as w . x + b.
+ *
+ * Works on the columns of the FeatureMatrix: the scores start at the bias
+ * and each column with a non-zero weight is added in one pass over its
+ * primitive array, so no per-row objects or dispatch are involved.
+ */
+public class LinearScorer extends Scorer {
+    private final double[] weights; // one per matrix column
+    private final double bias;
+
+    public LinearScorer(double[] weights, double bias) {
+        this.weights = weights.clone();
+        this.bias = bias;
+    }
+
+    public double[] getWeights() {
+        return weights.clone();
+    }
+
+    public double getBias() {
+        return bias;
+    }
+
+    @Override
+    public double[] score(FeatureMatrix matrix, int from, int to) {
+        if (matrix.numAttributes() != weights.length)
+            throw new IllegalArgumentException("matrix has " + matrix.numAttributes() + " columns, model has " + weights.length);
+        double[] scores = new double[to - from];
+        Arrays.fill(scores, bias);
+        for (int c = 0; c < weights.length; c++) {
+            double w = weights[c];
+            if (w == 0)
+                continue;
+            double[] column = matrix.column(c);
+            for (int r = from; r < to; r++)
+                scores[r - from] += w * column[r];
+        }
+        return scores;
+    }
+
+    /* score of a single feature vector laid out like the matrix rows */
+    public double score(double[] row) {
+        double score = bias;
+        for (int c = 0; c < weights.length; c++)
+            score += weights[c] * row[c];
+        return score;
+    }
+}
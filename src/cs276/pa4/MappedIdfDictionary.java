@@ -0,0 +1,205 @@
+package cs276.pa4;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+
+import cs276.pa4.Util.IdfDictionary;
+
+/**
+ * IdfDictionary backed by a read-only, memory-mapped file.
+ *
+ * The store is built once from df.txt and holds the vocabulary sorted by
+ * its UTF-8 bytes, so a lookup is a binary search over the mapped pages.
+ * Nothing but the mapping itself lives on the Java heap, opening the store
+ * costs a single mmap, and concurrently running JVMs share the same pages
+ * through the OS page cache.
+ *
+ * Layout (big-endian):
+ *   magic "PA4I", int version, int numTerms, double totalDocCount,
+ *   double[numTerms] idfs, int[numTerms + 1] term offsets into the blob,
+ *   then the blob of concatenated UTF-8 terms.
+ *
+ * Usage: java cs276.pa4.MappedIdfDictionary <df_file> <store_out_file>
+ */
+public class MappedIdfDictionary extends IdfDictionary {
+    public static final String EXTENSION = ".idf";
+
+    private static final int MAGIC = 0x50413449; // "PA4I"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 8;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer store;
+    private final int numTerms;
+    private final int idfBase;
+    private final int offsetBase;
+    private final int blobBase;
+
+    private MappedIdfDictionary(ByteBuffer store, double totalDocCount, int numTerms) {
+        super(totalDocCount);
+        this.store = store;
+        this.numTerms = numTerms;
+        this.idfBase = HEADER_SIZE;
+        this.offsetBase = idfBase + 8 * numTerms;
+        this.blobBase = offsetBase + 4 * (numTerms + 1);
+    }
+
+    public static MappedIdfDictionary open(String store_file_name) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(store_file_name, "r");
+        ByteBuffer store;
+        try {
+            // the mapping stays valid after the file is closed
+            store = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        } finally {
+            file.close();
+        }
+
+        long length = store.capacity();
+        if (length < HEADER_SIZE || store.getInt(0) != MAGIC)
+            throw new IOException("Not an idf store: " + store_file_name);
+        if (store.getInt(4) != VERSION)
+            throw new IOException("Unsupported idf store version " + store.getInt(4) + " in " + store_file_name);
+
+        // a truncated store fails here rather than with an IndexOutOfBounds on some lookup
+        int numTerms = store.getInt(8);
+        long blobBase = HEADER_SIZE + 12L * numTerms + 4;
+        if (numTerms < 0 || length < blobBase || length != blobBase + store.getInt((int) blobBase - 4))
+            throw new IOException("Truncated idf store " + store_file_name + ": " + length + " bytes for "
+                + numTerms + " terms");
+        return new MappedIdfDictionary(store, store.getDouble(12), numTerms);
+    }
+
+    /* Writes the store for the document frequencies listed in dfFile */
+    public static void build(String dfFile, String store_file_name) throws IOException {
+        Map<String, Double> dfs = Util.readDFs(dfFile);
+
+        // sort (term bytes, idf) pairs by the bytes
+        final byte[][] keys = new byte[dfs.size()][];
+        double[] unsortedIdfs = new double[keys.length];
+        Integer[] order = new Integer[keys.length];
+        int i = 0;
+        for (Map.Entry<String, Double> df : dfs.entrySet()) {
+            keys[i] = df.getKey().getBytes(UTF8);
+            unsortedIdfs[i] = Util.idf(df.getValue());
+            order[i] = i;
+            i++;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return compareBytes(keys[a], keys[b]);
+            }
+        });
+
+        byte[][] terms = new byte[keys.length][];
+        double[] idfs = new double[keys.length];
+        for (i = 0; i < order.length; i++) {
+            terms[i] = keys[order[i]];
+            idfs[i] = unsortedIdfs[order[i]];
+        }
+
+        // written next to the target and renamed over it, so no reader maps a partial store
+        File file = new File(store_file_name).getAbsoluteFile();
+        File tmp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+        try {
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(terms.length);
+                out.writeDouble(Util.TOTAL_DOCUMENT_COUNT);
+                for (double idf : idfs)
+                    out.writeDouble(idf);
+                int offset = 0;
+                for (byte[] term : terms) {
+                    out.writeInt(offset);
+                    offset += term.length;
+                }
+                out.writeInt(offset);
+                for (byte[] term : terms)
+                    out.write(term);
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file)) {
+                file.delete();
+                if (!tmp.renameTo(file))
+                    throw new IOException("Cannot move " + tmp + " to " + file);
+            }
+        } finally {
+            tmp.delete(); // no-op once renamed
+        }
+
+        System.err.println("# Built idf store " + store_file_name + " from " + dfFile + ": number of terms=" + terms.length);
+    }
+
+    public int size() {
+        return numTerms;
+    }
+
+    @Override
+    protected double lookup(String term) {
+        int i = indexOf(term.getBytes(UTF8));
+        return i < 0 ? Double.NaN : store.getDouble(idfBase + 8 * i);
+    }
+
+    /* binary search over the sorted terms; -1 if absent */
+    private int indexOf(byte[] key) {
+        int lo = 0, hi = numTerms - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareTo(key, mid);
+            if (cmp == 0)
+                return mid;
+            if (cmp < 0)
+                hi = mid - 1;
+            else
+                lo = mid + 1;
+        }
+        return -1;
+    }
+
+    /* compares key with the i-th stored term as unsigned bytes */
+    private int compareTo(byte[] key, int i) {
+        int start = blobBase + store.getInt(offsetBase + 4 * i);
+        int len = blobBase + store.getInt(offsetBase + 4 * (i + 1)) - start;
+        int n = Math.min(key.length, len);
+        for (int k = 0; k < n; k++) {
+            int a = key[k] & 0xFF;
+            int b = store.get(start + k) & 0xFF;
+            if (a != b)
+                return a - b;
+        }
+        return key.length - len;
+    }
+
+    private static int compareBytes(byte[] a, byte[] b) {
+        int n = Math.min(a.length, b.length);
+        for (int k = 0; k < n; k++) {
+            int x = a[k] & 0xFF;
+            int y = b[k] & 0xFF;
+            if (x != y)
+                return x - y;
+        }
+        return a.length - b.length;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: <df_file> <store_out_file>");
+            return;
+        }
+        build(args[0], args[1]);
+    }
+}
@@ -0,0 +1,264 @@
+package cs276.pa4;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Parses a pa4.signal.* file straight out of a memory-mapped byte buffer.
+ *
+ * Keys are matched as bytes and integers (positions, body_length, pagerank,
+ * anchor counts) are parsed without going through a String. Only the values
+ * that end up in a Document (url, title, headers, terms, anchor text) are
+ * decoded. Files larger than a single mapping are walked in windows that
+ * always end on a line boundary.
+ */
+public class MappedSignalReader extends SignalReader {
+    private static final long WINDOW_SIZE = 1L << 30;
+
+    private static final Charset ASCII = Charset.forName("ISO-8859-1");
+    // same decoding FileReader applies, so urls still match the rel files
+    private static final Charset TEXT = Charset.defaultCharset();
+
+    private static final byte[] QUERY = "query".getBytes(ASCII);
+    private static final byte[] URL = "url".getBytes(ASCII);
+    private static final byte[] TITLE = "title".getBytes(ASCII);
+    private static final byte[] HEADER = "header".getBytes(ASCII);
+    private static final byte[] BODY_HITS = "body_hits".getBytes(ASCII);
+    private static final byte[] BODY_LENGTH = "body_length".getBytes(ASCII);
+    private static final byte[] PAGERANK = "pagerank".getBytes(ASCII);
+    private static final byte[] ANCHOR_TEXT = "anchor_text".getBytes(ASCII);
+    private static final byte[] ANCHOR_COUNT = "stanford_anchor_count".getBytes(ASCII);
+
+    private final FileChannel channel;
+    private final RandomAccessFile file; // null when the channel is borrowed
+    private final long end;
+
+    private long nextWindow;
+    private MappedByteBuffer buf = null;
+    private int pos = 0;
+    private byte[] scratch = new byte[256];
+
+    // parse state carried between lines
+    private Document doc = null;
+    private String anchor_text = null;
+
+    public MappedSignalReader(String feature_file_name) throws IOException {
+        this.file = new RandomAccessFile(feature_file_name, "r");
+        this.channel = file.getChannel();
+        this.nextWindow = 0;
+        this.end = channel.size();
+    }
+
+    /*
+     * Reads only the byte range [start, end) of an open channel.
+     * start must sit at the beginning of a line; the channel is not closed.
+     */
+    public MappedSignalReader(FileChannel channel, long start, long end) {
+        this.file = null;
+        this.channel = channel;
+        this.nextWindow = start;
+        this.end = end;
+    }
+
+    @Override
+    public QueryGroup next() throws IOException {
+        QueryGroup group = null;
+        while (true) {
+            if (buf == null || pos >= buf.limit()) {
+                if (!mapNextWindow())
+                    break;
+            }
+
+            int limit = buf.limit();
+            int lineEnd = indexOf((byte) '\n', pos, limit);
+            if (lineEnd < 0)
+                lineEnd = limit;
+
+            // key
+            int keyStart = skipSpaces(pos, lineEnd);
+            int colon = indexOf((byte) ':', keyStart, lineEnd);
+            if (colon < 0) {
+                pos = lineEnd + 1; // blank line
+                continue;
+            }
+            int keyEnd = trimRight(keyStart, colon);
+
+            // value
+            int valStart = skipSpaces(colon + 1, lineEnd);
+            int valEnd = trimRight(valStart, lineEnd);
+
+            if (keyEquals(QUERY, keyStart, keyEnd)) {
+                if (group != null)
+                    break; // leave the line for the next call
+                group = new QueryGroup(new Query(string(valStart, valEnd)));
+                numQuery++;
+                doc = null;
+            } else if (group == null) {
+                // lines before the first query have no owner
+            } else if (keyEquals(URL, keyStart, keyEnd)) {
+                doc = new Document();
+                doc.url = string(valStart, valEnd);
+                group.documents.add(doc);
+                numDoc++;
+            } else if (keyEquals(TITLE, keyStart, keyEnd)) {
+                doc.title = string(valStart, valEnd);
+            } else if (keyEquals(HEADER, keyStart, keyEnd)) {
+                if (doc.headers == null)
+                    doc.headers = new ArrayList<String>();
+                doc.headers.add(string(valStart, valEnd));
+            } else if (keyEquals(BODY_HITS, keyStart, keyEnd)) {
+                if (doc.body_hits == null)
+                    doc.body_hits = new HashMap<String, List<Integer>>();
+                addBodyHits(valStart, valEnd);
+            } else if (keyEquals(BODY_LENGTH, keyStart, keyEnd)) {
+                doc.body_length = parseInt(valStart, valEnd);
+            } else if (keyEquals(PAGERANK, keyStart, keyEnd)) {
+                doc.page_rank = parseInt(valStart, valEnd);
+            } else if (keyEquals(ANCHOR_TEXT, keyStart, keyEnd)) {
+                anchor_text = string(valStart, valEnd);
+                if (doc.anchors == null)
+                    doc.anchors = new HashMap<String, Integer>();
+            } else if (keyEquals(ANCHOR_COUNT, keyStart, keyEnd)) {
+                doc.anchors.put(anchor_text, parseInt(valStart, valEnd));
+            }
+            pos = lineEnd + 1;
+        }
+        return group;
+    }
+
+    /* "term pos1 pos2 ..." -> body_hits[term] += positions */
+    private void addBodyHits(int from, int to) {
+        int space = indexOf((byte) ' ', from, to);
+        if (space < 0)
+            space = to;
+        String term = string(from, space);
+        List<Integer> positions = doc.body_hits.get(term);
+        if (positions == null) {
+            positions = new ArrayList<Integer>();
+            doc.body_hits.put(term, positions);
+        }
+
+        int value = 0;
+        boolean inNumber = false;
+        for (int i = space + 1; i < to; i++) {
+            byte b = buf.get(i);
+            if (b >= '0' && b <= '9') {
+                value = value * 10 + (b - '0');
+                inNumber = true;
+            } else if (inNumber) {
+                positions.add(value);
+                value = 0;
+                inNumber = false;
+            }
+        }
+        if (inNumber)
+            positions.add(value);
+    }
+
+    /*
+     * Maps the next window of the range. Every window but the last is
+     * cut back to its final newline so that no line straddles two buffers.
+     */
+    private boolean mapNextWindow() throws IOException {
+        if (buf != null)
+            nextWindow += buf.limit();
+        if (nextWindow >= end)
+            return false;
+
+        long size = Math.min(WINDOW_SIZE, end - nextWindow);
+        buf = channel.map(FileChannel.MapMode.READ_ONLY, nextWindow, size);
+        if (nextWindow + size < end) {
+            int lastNewline = (int) size - 1;
+            while (lastNewline >= 0 && buf.get(lastNewline) != '\n')
+                lastNewline--;
+            if (lastNewline < 0)
+                throw new IOException("Signal file line longer than " + WINDOW_SIZE + " bytes at offset " + nextWindow);
+            buf.limit(lastNewline + 1);
+        }
+        pos = 0;
+        return true;
+    }
+
+    ///////////////////// Byte helpers ////////////////////////////
+
+    private int indexOf(byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buf.get(i) == b)
+                return i;
+        }
+        return -1;
+    }
+
+    private int skipSpaces(int from, int to) {
+        while (from < to && isSpace(buf.get(from)))
+            from++;
+        return from;
+    }
+
+    private int trimRight(int from, int to) {
+        while (to > from && isSpace(buf.get(to - 1)))
+            to--;
+        return to;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    private boolean keyEquals(byte[] key, int from, int to) {
+        if (to - from != key.length)
+            return false;
+        for (int i = 0; i < key.length; i++) {
+            if (buf.get(from + i) != key[i])
+                return false;
+        }
+        return true;
+    }
+
+    private int parseInt(int from, int to) {
+        boolean negative = false;
+        if (from < to && buf.get(from) == '-') {
+            negative = true;
+            from++;
+        }
+        if (from == to)
+            throw new NumberFormatException("Empty integer field");
+
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            byte b = buf.get(i);
+            if (b < '0' || b > '9')
+                throw new NumberFormatException("Bad integer field: " + string(from, to));
+            value = value * 10 + (b - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    /* decodes [from, to), taking the cheap Latin-1 path for pure ASCII */
+    private String string(int from, int to) {
+        int len = to - from;
+        if (scratch.length < len)
+            scratch = new byte[Math.max(len, 2 * scratch.length)];
+        boolean ascii = true;
+        for (int i = 0; i < len; i++) {
+            byte b = buf.get(from + i);
+            scratch[i] = b;
+            if (b < 0)
+                ascii = false;
+        }
+        return new String(scratch, 0, len, ascii ? ASCII : TEXT);
+    }
+
+    @Override
+    public void close() throws IOException {
+        buf = null;
+        if (file != null)
+            file.close();
+    }
+}
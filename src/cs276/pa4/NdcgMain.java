@@ -72,6 +72,31 @@ public class NdcgMain {
       totalSum = getNdcgQuery(rels, totalSum);
     }
     
+    return totalSum/totalQueries;
+  }
+  
+  /* Same as score(String) for rankings held in memory: query -> ranked urls */
+  public double score(Map<String, List<String>> rankedQueries) {
+    int totalQueries = 0;
+    ArrayList<Double> rels = new ArrayList<Double>();
+    double totalSum = 0;
+    for (Map.Entry<String, List<String>> ranked : rankedQueries.entrySet()) {
+      String query = ranked.getKey().trim();
+      totalQueries++;
+      rels.clear();
+      for (String url : ranked.getValue()) {
+        url = url.trim();
+        Double relevance = relevantScores.get(query.hashCode() + url.hashCode());
+        if (relevance != null) {
+          rels.add(relevance);
+        } else {
+          System.err.printf("Warning. Cannot find query %s with url %s. Ignoring this line.\n", query, url);
+        }
+      }
+      if (rels.size() > 0) {
+        totalSum = getNdcgQuery(rels, totalSum);
+      }
+    }
     return totalSum/totalQueries;
   }
   
@@ -0,0 +1,281 @@
+package cs276.pa4;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Preference pairs of the query groups of a FeatureMatrix, generated on
+ * the fly.
+ *
+ * Two documents of the same query with different labels form a pair, and
+ * the better labelled one is better(). Nothing is stored per pair: on
+ * entering a query group the cursor sorts its rows by label, best first,
+ * and walks positions (p, q) of that order with q in a lower label block
+ * than p. Memory scales with the largest group however many pairs it has.
+ *
+ * A Sampling mode bounds the pairs of long result lists. RANDOM draws
+ * from a Random seeded per group, so every pass over the same matrix
+ * sees the same pairs in the same order (group by group, best document
+ * first), whatever the mode.
+ *
+ * Usage:
+ *   PairGenerator pairs = new PairGenerator(matrix, labelColumn);
+ *   while (pairs.next())
+ *       use(pairs.better(), pairs.worse(), pairs.difference(col));
+ */
+public class PairGenerator {
+
+    /* which pairs of a query are generated */
+    public enum Sampling {
+        ALL,             // every two documents with different labels
+        RANDOM,          // n of those per query, drawn uniformly without replacement
+        ADJACENT_GRADES, // documents whose labels are next to each other among the query's labels
+        TOP_K;           // pairs whose better document is one of the query's n best labelled
+
+        /* the mode called name, in any case */
+        public static Sampling parse(String name) {
+            StringBuilder names = new StringBuilder();
+            for (Sampling sampling : values()) {
+                if (sampling.name().equalsIgnoreCase(name))
+                    return sampling;
+                names.append(names.length() == 0 ? "" : ", ").append(sampling.name().toLowerCase());
+            }
+            throw new IllegalArgumentException("Unknown pair sampling \"" + name + "\", expected one of " + names);
+        }
+    }
+
+    private final FeatureMatrix matrix;
+    private final int labelColumn;
+    private final double[] labels;
+    private final Sampling sampling;
+    private final int n;
+    private final long seed;
+
+    private int group = -1;
+    private int size = 0;                       // rows in the group
+    private int[] order = new int[0];           // rows of the group by label, best first, ties by row
+    private int[] blockEnd = new int[16];       // first position with a lower label than position p
+    private long[] firstPair = new long[17];    // pairs of positions before p, for RANDOM
+    private long[] sample = new long[0];        // RANDOM: chosen pair numbers of the group, ascending
+    private int numSampled = 0, s = 0;
+
+    private int p = 0, q = 0;                   // positions of the current pair
+
+    private long count = -1;
+
+    /* every pair */
+    public PairGenerator(FeatureMatrix matrix, int labelColumn) {
+        this(matrix, labelColumn, Sampling.ALL, 0, 0);
+    }
+
+    /* n is the pairs per query for RANDOM and k for TOP_K; seed only matters to RANDOM */
+    public PairGenerator(FeatureMatrix matrix, int labelColumn, Sampling sampling, int n, long seed) {
+        if ((sampling == Sampling.RANDOM || sampling == Sampling.TOP_K) && n <= 0)
+            throw new IllegalArgumentException(sampling + " needs a positive n, got " + n);
+        this.matrix = matrix;
+        this.labelColumn = labelColumn;
+        this.labels = matrix.column(labelColumn);
+        this.sampling = sampling;
+        this.n = n;
+        this.seed = seed;
+        reset();
+    }
+
+    /* rewinds to before the first pair */
+    public void reset() {
+        group = -1;
+        size = 0;
+        p = q = 0;
+        numSampled = s = 0;
+    }
+
+    /* moves to the next pair; false once all pairs have been seen */
+    public boolean next() {
+        while (group < matrix.numGroups()) {
+            if (group >= 0 && advance())
+                return true;
+            group++;
+            if (group < matrix.numGroups())
+                enterGroup();
+        }
+        return false;
+    }
+
+    /* steps to the next pair of the current group */
+    private boolean advance() {
+        if (sampling == Sampling.RANDOM) {
+            if (s >= numSampled)
+                return false;
+            long r = sample[s++];
+            // the first p with firstPair[p + 1] > r, skipping positions without pairs
+            int lo = 0, hi = size - 1;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (firstPair[mid + 1] > r)
+                    hi = mid;
+                else
+                    lo = mid + 1;
+            }
+            p = lo;
+            q = blockEnd[p] + (int) (r - firstPair[p]);
+            return true;
+        }
+
+        q++;
+        while (q >= partnerEnd(p)) {
+            p++;
+            if (p >= betterEnd())
+                return false;
+            q = blockEnd[p];
+        }
+        return true;
+    }
+
+    /* positions that may be the better document of a pair are [0, betterEnd()) */
+    private int betterEnd() {
+        return sampling == Sampling.TOP_K ? Math.min(n, size) : size;
+    }
+
+    /* the worse documents paired with position p are [blockEnd[p], partnerEnd(p)) */
+    private int partnerEnd(int p) {
+        if (sampling == Sampling.ADJACENT_GRADES)
+            return blockEnd[p] < size ? blockEnd[blockEnd[p]] : size;
+        return size;
+    }
+
+    /* sorts the rows of the current group and, for RANDOM, draws its pairs */
+    private void enterGroup() {
+        int start = matrix.groupStart(group);
+        size = matrix.groupEnd(group) - start;
+        order = new Ranking(Arrays.copyOfRange(labels, start, start + size), null).order();
+        if (blockEnd.length < size) {
+            blockEnd = new int[size];
+            firstPair = new long[size + 1];
+        }
+        for (int i = size - 1; i >= 0; i--) {
+            order[i] += start;
+            if (i + 1 < size && labels[order[i + 1]] == labels[order[i]])
+                blockEnd[i] = blockEnd[i + 1];
+            else
+                blockEnd[i] = i + 1;
+        }
+
+        // before the first pair of the group
+        p = 0;
+        q = size > 0 ? blockEnd[0] - 1 : 0;
+
+        if (sampling == Sampling.RANDOM)
+            drawSample();
+    }
+
+    /*
+     * Pair number r of the group is the position p with firstPair[p] <= r
+     * < firstPair[p + 1], paired with q = blockEnd[p] + r - firstPair[p].
+     * Floyd's algorithm picks min(n, pairs) distinct numbers.
+     */
+    private void drawSample() {
+        firstPair[0] = 0;
+        for (int i = 0; i < size; i++)
+            firstPair[i + 1] = firstPair[i] + (size - blockEnd[i]);
+        long pairs = firstPair[size];
+
+        Random random = new Random(seed ^ (group * 0x9E3779B97F4A7C15L));
+        numSampled = (int) Math.min(n, pairs);
+        if (sample.length < numSampled)
+            sample = new long[numSampled];
+        if (numSampled == pairs) {
+            for (int i = 0; i < numSampled; i++)
+                sample[i] = i;
+        } else {
+            Set<Long> chosen = new HashSet<Long>();
+            for (long j = pairs - numSampled; j < pairs; j++) {
+                long t = Math.min(j, (long) (random.nextDouble() * (j + 1)));
+                chosen.add(chosen.contains(t) ? j : t);
+            }
+            int i = 0;
+            for (long r : chosen)
+                sample[i++] = r;
+            Arrays.sort(sample, 0, numSampled);
+        }
+        s = 0;
+    }
+
+    /* number of pairs generated, counted in a full pass; rewinds the cursor */
+    public long count() {
+        if (count < 0) {
+            reset();
+            long pairs = 0;
+            while (next())
+                pairs++;
+            count = pairs;
+        }
+        reset();
+        return count;
+    }
+
+    /* number of pairs without sampling, i.e. what ALL generates */
+    public long countAll() {
+        long pairs = 0;
+        for (int g = 0; g < matrix.numGroups(); g++) {
+            int start = matrix.groupStart(g), end = matrix.groupEnd(g);
+            double[] groupLabels = Arrays.copyOfRange(labels, start, end);
+            Arrays.sort(groupLabels);
+            // every two rows, less those of equal labels
+            long total = (long) groupLabels.length * (groupLabels.length - 1) / 2;
+            for (int i = 0, j; i < groupLabels.length; i = j) {
+                for (j = i + 1; j < groupLabels.length && groupLabels[j] == groupLabels[i]; j++)
+                    ;
+                total -= (long) (j - i) * (j - i - 1) / 2;
+            }
+            pairs += total;
+        }
+        return pairs;
+    }
+
+    public FeatureMatrix getMatrix() {
+        return matrix;
+    }
+
+    public int getLabelColumn() {
+        return labelColumn;
+    }
+
+    public Sampling getSampling() {
+        return sampling;
+    }
+
+    /* query group of the current pair */
+    public int group() {
+        return group;
+    }
+
+    /* row of the better labelled document */
+    public int better() {
+        return order[p];
+    }
+
+    /* row of the worse labelled document */
+    public int worse() {
+        return order[q];
+    }
+
+    /* column col of the better row minus that of the worse row */
+    public double difference(int col) {
+        double[] column = matrix.column(col);
+        return column[order[p]] - column[order[q]];
+    }
+
+    @Override
+    public String toString() {
+        switch (sampling) {
+        case RANDOM:
+            return "random(n=" + n + ", seed=" + seed + ")";
+        case TOP_K:
+            return "top_k(k=" + n + ")";
+        default:
+            return sampling.name().toLowerCase();
+        }
+    }
+}
@@ -1,74 +1,347 @@
 package cs276.pa4;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import cs276.pa4.Util.IdfDictionary;
+
+import libsvm.svm_node;
+import libsvm.svm_problem;
 import weka.classifiers.Classifier;
 import weka.classifiers.functions.LibSVM;
+import weka.core.Attribute;
 import weka.core.Instances;
 import weka.core.SelectedTag;
 
 public class PairwiseLearner extends Learner {
+  /* columns of the per-document feature matrix; the last one is the relevance label */
+  private static final String[] ATTRIBUTES =
+      {"url_w", "title_w", "body_w", "header_w", "anchor_w", "relevance_score"};
+  private static final int CLASS_INDEX = ATTRIBUTES.length - 1;
+
+  /* class of a pair's difference vector: is its first document the better one */
+  private static final String[] PREFERENCES = {"-1", "+1"};
+  private static final int WORSE_FIRST = 0, BETTER_FIRST = 1;
+
+  /*
+   * Pairs trained on: -Dpa4.pairs=all (default), random, adjacent_grades
+   * or top_k; -Dpa4.pairs.n=N is the pairs per query for random and k
+   * for top_k, -Dpa4.pairs.seed=S seeds random.
+   */
+  private PairGenerator.Sampling pairSampling;
+  private int pairsPerQuery;
+  private long pairSeed;
+
+  /* -Dpa4.linear.solver=libsvm trains linear kernels with libsvm's SMO instead of LinearRankSVM */
+  private String linearSolver = System.getProperty("pa4.linear.solver", "newton");
+
   private LibSVM model;
   public PairwiseLearner(boolean isLinearKernel){
+    readPairSampling();
     try{
       model = new LibSVM();
     } catch (Exception e){
       e.printStackTrace();
     }
-    
+
     if(isLinearKernel){
       model.setKernelType(new SelectedTag(LibSVM.KERNELTYPE_LINEAR, LibSVM.TAGS_KERNELTYPE));
     }
   }
-  
+
   public PairwiseLearner(double C, double gamma, boolean isLinearKernel){
+    readPairSampling();
     try{
       model = new LibSVM();
     } catch (Exception e){
       e.printStackTrace();
     }
-    
+
     model.setCost(C);
     model.setGamma(gamma); // only matter for RBF kernel
     if(isLinearKernel){
       model.setKernelType(new SelectedTag(LibSVM.KERNELTYPE_LINEAR, LibSVM.TAGS_KERNELTYPE));
     }
   }
-  
+
+	/* the -Dpa4.pairs* properties, checked here so that a bad value fails before any work is done */
+	private void readPairSampling() {
+		String n = System.getProperty("pa4.pairs.n", "10");
+		try {
+			setPairSampling(PairGenerator.Sampling.parse(System.getProperty("pa4.pairs", "all")),
+					Integer.parseInt(n.trim()), Long.getLong("pa4.pairs.seed", 0L));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("-Dpa4.pairs.n must be a positive integer, got \"" + n + "\"");
+		}
+	}
+
+	/* n is the pairs per query for RANDOM and k for TOP_K; seed only matters to RANDOM */
+	public void setPairSampling(PairGenerator.Sampling sampling, int n, long seed) {
+		if (n <= 0)
+			throw new IllegalArgumentException("-Dpa4.pairs.n must be a positive integer, got " + n);
+		pairSampling = sampling;
+		pairsPerQuery = n;
+		pairSeed = seed;
+	}
+
+	/*
+	 * Returns the per-document rows, labelled with their relevance. The
+	 * pairs are generated from them by training(), so no difference
+	 * vector is built here.
+	 */
 	@Override
 	public Instances extract_train_features(String train_data_file,
-			String train_rel_file, Map<String, Double> idfs) {
-		/*
-		 * @TODO: Your code here
-		 */
-		return null;
+			String train_rel_file, IdfDictionary idfs) {
+
+		FeatureMatrix matrix = loadRows(ATTRIBUTES, train_data_file, train_rel_file, idfs);
+		Instances dataset = matrix.toInstances("train_dataset", CLASS_INDEX);
+
+		// training() needs the query groups of the rows
+		trainFeatures = new TestFeatures();
+		trainFeatures.matrix = matrix;
+		trainFeatures.features = dataset;
+		trainFeatures.index_map = indexRows(matrix);
+
+		return dataset;
 	}
 
+	/*
+	 * Trains the SVM on the preference pairs of dataset. The dataset from
+	 * extract_train_features keeps its query groups; any other dataset
+	 * with the same attributes is taken as the documents of one query.
+	 * A linear kernel is trained by LinearRankSVM, other kernels by libsvm.
+	 */
 	@Override
 	public Classifier training(Instances dataset) {
-		/*
-		 * @TODO: Your code here
-		 */
-		return null;
+		try {
+			FeatureMatrix matrix;
+			if (trainFeatures != null && trainFeatures.features == dataset) {
+				matrix = trainFeatures.matrix;
+			} else {
+				if (dataset.numAttributes() != ATTRIBUTES.length || dataset.classIndex() != CLASS_INDEX)
+					throw new IllegalArgumentException("expected the " + ATTRIBUTES.length
+							+ " attributes of extract_train_features with class index " + CLASS_INDEX);
+				matrix = FeatureMatrix.fromInstances(dataset);
+			}
+			PairGenerator pairs = new PairGenerator(matrix, CLASS_INDEX,
+					pairSampling, pairsPerQuery, pairSeed);
+			System.err.println("# Pair sampling " + pairs + ": training on " + pairs.count() + " of "
+					+ pairs.countAll() + " pairs of " + matrix.numRows() + " documents");
+
+			if (isLinearKernel() && !linearSolver.equals("libsvm")) {
+				LinearRankSVM rankSvm = new LinearRankSVM();
+				rankSvm.setCost(model.getCost());
+				rankSvm.train(pairs);
+				System.err.println("# Linear RankSVM: " + rankSvm.getIterations() + " Newton steps, "
+						+ rankSvm.getCgIterations() + " CG steps, objective=" + rankSvm.getObjective());
+				return rankSvm;
+			}
+			model.buildClassifier(pairHeader(), toProblem(pairs));
+		} catch (Exception e) {
+			System.out.println("Unable to train data");
+			e.printStackTrace();
+			System.exit(1);
+		}
+		return model;
+	}
+
+	private boolean isLinearKernel() {
+		return model.getKernelType().getSelectedTag().getID() == LibSVM.KERNELTYPE_LINEAR;
+	}
+
+	@Override
+	public LinearRanker toLinearRanker(Classifier model) {
+		return toLinearRanker(model, ATTRIBUTES, CLASS_INDEX);
+	}
+
+	/*
+	 * Writes the difference vector of each pair straight into libsvm's
+	 * sparse rows, with no Weka instance per pair. Every other pair is
+	 * flipped to (worse - better) so both classes are equally represented.
+	 */
+	private svm_problem toProblem(PairGenerator pairs) {
+		long count = pairs.count();
+		if (count > Integer.MAX_VALUE)
+			throw new IllegalStateException(count + " pairs are more than libsvm can hold");
+
+		svm_problem problem = new svm_problem();
+		problem.l = (int) count;
+		problem.y = new double[problem.l];
+		problem.x = new svm_node[problem.l][];
+
+		double[] diff = new double[CLASS_INDEX];
+		for (int p = 0; pairs.next(); p++) {
+			boolean betterFirst = (p & 1) == 0;
+			int nonZero = 0;
+			for (int c = 0; c < diff.length; c++) {
+				diff[c] = betterFirst ? pairs.difference(c) : -pairs.difference(c);
+				if (diff[c] != 0)
+					nonZero++;
+			}
+
+			// libsvm indexes attributes from 1, the class column is left out
+			svm_node[] x = new svm_node[nonZero];
+			for (int c = 0, k = 0; c < diff.length; c++) {
+				if (diff[c] == 0)
+					continue;
+				x[k] = new svm_node();
+				x[k].index = c + 1;
+				x[k].value = diff[c];
+				k++;
+			}
+			problem.x[p] = x;
+			problem.y[p] = betterFirst ? BETTER_FIRST : WORSE_FIRST;
+		}
+		return problem;
+	}
+
+	/* format of the pair rows: the feature differences, then the preference */
+	private static Instances pairHeader() {
+		ArrayList<Attribute> attributes = new ArrayList<Attribute>();
+		for (int c = 0; c < CLASS_INDEX; c++)
+			attributes.add(new Attribute(ATTRIBUTES[c]));
+		List<String> preferences = new ArrayList<String>();
+		for (String p : PREFERENCES)
+			preferences.add(p);
+		attributes.add(new Attribute("preference", preferences));
+
+		Instances header = new Instances("train_pairs", attributes, 0);
+		header.setClassIndex(CLASS_INDEX);
+		return header;
 	}
 
 	@Override
 	public TestFeatures extract_test_features(String test_data_file,
-			Map<String, Double> idfs) {
-		/*
-		 * @TODO: Your code here
-		 */
-		return null;
+			IdfDictionary idfs) {
+
+		FeatureMatrix matrix = loadRows(ATTRIBUTES, test_data_file, null, idfs);
+
+		TestFeatures tFeatures = new TestFeatures();
+		tFeatures.matrix = matrix;
+		tFeatures.features = matrix.toInstances("test_dataset", CLASS_INDEX);
+		tFeatures.index_map = indexRows(matrix);
+
+		return tFeatures;
 	}
 
+	/*
+	 * Ranks each query's documents. A linear model (LinearRankSVM or
+	 * linear-kernel LibSVM) scores every document once with its weight
+	 * vector, w . x_a > w . x_b being the same as preferring a to b, and
+	 * each query is sorted once. Any other model is asked about pairs by
+	 * a merge sort, O(n log n) classifications per query instead of one
+	 * per ordered pair, scored in batches that span all queries.
+	 */
 	@Override
 	public Map<String, List<String>> testing(TestFeatures tf,
 			Classifier model) {
-		/*
-		 * @TODO: Your code here
-		 */
-		return null;
+
+		Scorer scorer = Scorer.forModel(model, tf.matrix, CLASS_INDEX);
+		if (!(scorer instanceof LinearScorer))
+			return new PreferenceSort(new ClassifierScorer(model, pairHeader()), tf).rank();
+
+		double[] allScores = scorer.score(tf.matrix);
+		Map<String, List<String>> results = new HashMap<String, List<String>>();
+		for (Query q : tf.index_map.keySet()) {
+			Map<Document, Integer> rows = tf.index_map.get(q);
+			double[] scores = new double[rows.size()];
+			String[] urls = new String[rows.size()];
+			int i = 0;
+			for (Map.Entry<Document, Integer> entry : rows.entrySet()) {
+				scores[i] = allScores[entry.getValue()];
+				urls[i] = entry.getKey().url;
+				i++;
+			}
+			results.put(q.query, rank(scores, urls));
+		}
+		return results;
+	}
+
+	/*
+	 * Ranks every query's documents with Ranking.order on the model's
+	 * preference between two of them. Each query's documents start in url
+	 * order and the sort is stable, so the ranking does not depend on hash
+	 * order. All queries are sorted together, and each batch of
+	 * comparisons becomes the difference rows of one FeatureMatrix, scored
+	 * in a single Scorer call.
+	 */
+	private class PreferenceSort implements Ranking.Preference {
+		private final Scorer scorer;
+		private final TestFeatures tf;
+		private final FeatureMatrix pairs = new FeatureMatrix(ATTRIBUTES); // reused, grown to the largest batch
+		private long comparisons = 0;
+		private long batches = 0;
+
+		// documents of all queries, query by query and each in url order
+		private final String[] queries;
+		private final int[] bounds; // query g has documents [bounds[g], bounds[g + 1])
+		private final int[] rows;
+		private final String[] urls;
+
+		PreferenceSort(Scorer scorer, TestFeatures tf) {
+			this.scorer = scorer;
+			this.tf = tf;
+			queries = new String[tf.index_map.size()];
+			bounds = new int[queries.length + 1];
+			int numDocuments = 0;
+			for (Map<Document, Integer> docs : tf.index_map.values())
+				numDocuments += docs.size();
+			rows = new int[numDocuments];
+			urls = new String[numDocuments];
+
+			int g = 0, d = 0;
+			for (Map.Entry<Query, Map<Document, Integer>> query : tf.index_map.entrySet()) {
+				int n = query.getValue().size();
+				int[] queryRows = new int[n];
+				String[] queryUrls = new String[n];
+				int i = 0;
+				for (Map.Entry<Document, Integer> entry : query.getValue().entrySet()) {
+					queryRows[i] = entry.getValue();
+					queryUrls[i] = entry.getKey().url;
+					i++;
+				}
+				for (int p : new Ranking(new double[n], queryUrls).order()) {
+					rows[d] = queryRows[p];
+					urls[d++] = queryUrls[p];
+				}
+				queries[g] = query.getKey().query;
+				bounds[++g] = d;
+			}
+		}
+
+		Map<String, List<String>> rank() {
+			int[] order = Ranking.order(bounds, this);
+			Map<String, List<String>> results = new HashMap<String, List<String>>();
+			for (int g = 0; g < queries.length; g++) {
+				int n = bounds[g + 1] - bounds[g];
+				int k = rankLimit > 0 ? Math.min(rankLimit, n) : n;
+				List<String> ranked = new ArrayList<String>(k);
+				for (int i = bounds[g]; i < bounds[g] + k; i++)
+					ranked.add(urls[order[i]]);
+				results.put(queries[g], ranked);
+			}
+			System.err.println("# Pairwise ranking: " + comparisons + " model calls in " + batches
+					+ " batches for " + tf.matrix.numRows() + " documents");
+			return results;
+		}
+
+		/* ahead[k] is whether the model classifies x_a[k] - x_b[k] as BETTER_FIRST */
+		@Override
+		public void before(int[] a, int[] b, int count, boolean[] ahead) {
+			while (pairs.numRows() < count)
+				pairs.set(pairs.addRow(), CLASS_INDEX, Double.NaN);
+			for (int k = 0; k < count; k++) {
+				for (int c = 0; c < CLASS_INDEX; c++)
+					pairs.set(k, c, tf.matrix.get(rows[a[k]], c) - tf.matrix.get(rows[b[k]], c));
+			}
+			double[] predictions = scorer.score(pairs, 0, count);
+			for (int k = 0; k < count; k++)
+				ahead[k] = predictions[k] == BETTER_FIRST;
+			comparisons += count;
+			batches++;
+		}
 	}
 
 }
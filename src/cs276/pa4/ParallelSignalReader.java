@@ -0,0 +1,152 @@
+package cs276.pa4;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Streams a signal file parsed on several cores.
+ *
+ * The file is cut into byte ranges that each begin on a "query:" line at
+ * column 0, so every chunk holds whole query groups and can be parsed by
+ * its own MappedSignalReader. Chunks are parsed on a ForkJoinPool a few
+ * ahead of the consumer and handed out group by group in file order, so
+ * only the chunks in flight are ever held in memory, however large the
+ * file.
+ */
+public class ParallelSignalReader extends SignalReader {
+    private static final long MIN_CHUNK_SIZE = 1L << 20;
+    private static final long MAX_CHUNK_SIZE = 1L << 22;
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final int LOOKAHEAD_PER_THREAD = 2;
+    private static final int PROBE_SIZE = 1 << 16;
+    private static final byte[] QUERY_LINE = "\nquery:".getBytes();
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long size;
+    private final long chunkSize;
+    private final int lookahead;
+    private final ForkJoinPool pool;
+
+    private final ArrayDeque<ChunkTask> inFlight = new ArrayDeque<ChunkTask>();
+    private long nextChunk = 0; // start of the first chunk not yet handed to the pool
+    private Iterator<QueryGroup> current = null;
+
+    public ParallelSignalReader(String feature_file_name, int parallelism) throws IOException {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        this.file = new RandomAccessFile(feature_file_name, "r");
+        this.channel = file.getChannel();
+        this.size = channel.size();
+        // several chunks per thread so they balance, small files stay single-chunk
+        this.chunkSize = Math.max(MIN_CHUNK_SIZE,
+            Math.min(MAX_CHUNK_SIZE, size / ((long) parallelism * CHUNKS_PER_THREAD)));
+        this.lookahead = parallelism * LOOKAHEAD_PER_THREAD;
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    @Override
+    public QueryGroup next() throws IOException {
+        while (current == null || !current.hasNext()) {
+            submitChunks();
+            ChunkTask chunk = inFlight.poll();
+            if (chunk == null)
+                return null;
+            try {
+                current = chunk.join().iterator();
+            } catch (ChunkFailure e) {
+                throw (IOException) e.getCause();
+            }
+        }
+        QueryGroup group = current.next();
+        numQuery++;
+        numDoc += group.documents.size();
+        return group;
+    }
+
+    /* keeps up to lookahead chunks parsing */
+    private void submitChunks() throws IOException {
+        while (inFlight.size() < lookahead && nextChunk < size) {
+            long end = nextQueryLine(nextChunk + chunkSize);
+            ChunkTask chunk = new ChunkTask(channel, nextChunk, end);
+            pool.execute(chunk);
+            inFlight.add(chunk);
+            nextChunk = end;
+        }
+    }
+
+    /* offset of the first "query:" line starting after from, or size if none */
+    private long nextQueryLine(long from) throws IOException {
+        ByteBuffer probe = ByteBuffer.allocate(PROBE_SIZE);
+        long offset = from;
+        while (offset < size) {
+            probe.clear();
+            int read = channel.read(probe, offset);
+            if (read <= 0)
+                break;
+            for (int i = 0; i + QUERY_LINE.length <= read; i++) {
+                int k = 0;
+                while (k < QUERY_LINE.length && probe.get(i + k) == QUERY_LINE[k])
+                    k++;
+                if (k == QUERY_LINE.length)
+                    return offset + i + 1;
+            }
+            // overlap so a match straddling two probes is not missed
+            offset += Math.max(1, read - QUERY_LINE.length + 1);
+        }
+        return size;
+    }
+
+    @Override
+    public void close() throws IOException {
+        pool.shutdownNow();
+        inFlight.clear();
+        file.close();
+    }
+
+    /* Parses the query groups of one byte range */
+    private static class ChunkTask extends RecursiveTask<List<QueryGroup>> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient FileChannel channel;
+        private final long start, end;
+
+        ChunkTask(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected List<QueryGroup> compute() {
+            List<QueryGroup> groups = new ArrayList<QueryGroup>();
+            try {
+                MappedSignalReader reader = new MappedSignalReader(channel, start, end);
+                QueryGroup group;
+                while ((group = reader.next()) != null)
+                    groups.add(group);
+                reader.close();
+            } catch (IOException e) {
+                throw new ChunkFailure(e);
+            }
+            return groups;
+        }
+    }
+
+    /* carries an IOException out of a fork/join task */
+    private static class ChunkFailure extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        ChunkFailure(IOException cause) {
+            super(cause);
+        }
+    }
+}
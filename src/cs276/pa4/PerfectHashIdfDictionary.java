@@ -0,0 +1,194 @@
+package cs276.pa4;
+
+import java.io.IOException;
+import java.util.Map;
+
+import cs276.pa4.Util.IdfDictionary;
+
+/**
+ * Immutable IdfDictionary over a minimal perfect hash of the df.txt
+ * vocabulary.
+ *
+ * Every vocabulary term maps to its own slot in [0, n), so a lookup is one
+ * hash of the term, one displacement read and one probe into a primitive
+ * double[] of idfs. The terms themselves are not kept: each slot stores a
+ * 32-bit fingerprint of its term instead, and a term whose fingerprint does
+ * not match is treated as out of vocabulary (smoothed as usual).
+ *
+ * Built with hash-and-displace: terms are hashed into buckets of about
+ * BUCKET_SIZE terms, the largest buckets are placed first by searching for
+ * a seed that sends all their terms to free slots, and single-term buckets
+ * are then pointed straight at the slots that are left.
+ */
+public class PerfectHashIdfDictionary extends IdfDictionary {
+    private static final int BUCKET_SIZE = 4;
+    private static final int MAX_SEED = 1 << 24;
+
+    private final int[] displacements; // per bucket: a seed >= 0, or -(slot + 1) for a direct slot
+    private final int[] fingerprints;
+    private final double[] idfs;
+
+    private PerfectHashIdfDictionary(int[] displacements, int[] fingerprints, double[] idfs, double totalDocCount) {
+        super(totalDocCount);
+        this.displacements = displacements;
+        this.fingerprints = fingerprints;
+        this.idfs = idfs;
+    }
+
+    public static PerfectHashIdfDictionary load(String dfFile) throws IOException {
+        Map<String, Double> dfs = Util.readDFs(dfFile);
+        String[] terms = new String[dfs.size()];
+        double[] idfs = new double[terms.length];
+        int i = 0;
+        for (Map.Entry<String, Double> df : dfs.entrySet()) {
+            terms[i] = df.getKey();
+            idfs[i] = Util.idf(df.getValue());
+            i++;
+        }
+        return build(terms, idfs, Util.TOTAL_DOCUMENT_COUNT);
+    }
+
+    /* terms must be distinct; idfs[i] is the idf of terms[i] */
+    public static PerfectHashIdfDictionary build(String[] terms, double[] termIdfs, double totalDocCount) {
+        int n = terms.length;
+        int numBuckets = Math.max(1, n / BUCKET_SIZE);
+
+        long[] hashes = new long[n];
+        for (int i = 0; i < n; i++)
+            hashes[i] = hash(terms[i]);
+
+        // group the terms by bucket (counting sort into bucketStart / members)
+        int[] bucketStart = new int[numBuckets + 1];
+        for (int i = 0; i < n; i++)
+            bucketStart[bucket(hashes[i], numBuckets) + 1]++;
+        int maxBucketSize = 0;
+        for (int b = 0; b < numBuckets; b++) {
+            maxBucketSize = Math.max(maxBucketSize, bucketStart[b + 1]);
+            bucketStart[b + 1] += bucketStart[b];
+        }
+        int[] members = new int[n];
+        int[] fill = new int[numBuckets];
+        for (int i = 0; i < n; i++) {
+            int b = bucket(hashes[i], numBuckets);
+            members[bucketStart[b] + fill[b]++] = i;
+        }
+
+        // largest buckets first
+        int[] bySize = new int[numBuckets];
+        int next = 0;
+        for (int size = maxBucketSize; size >= 1; size--) {
+            for (int b = 0; b < numBuckets; b++) {
+                if (bucketStart[b + 1] - bucketStart[b] == size)
+                    bySize[next++] = b;
+            }
+        }
+        int numFilledBuckets = next;
+
+        int[] displacements = new int[numBuckets];
+        int[] fingerprints = new int[n];
+        double[] idfs = new double[n];
+        boolean[] taken = new boolean[n];
+        int[] slots = new int[maxBucketSize];
+
+        int k = 0;
+        for (; k < numFilledBuckets; k++) {
+            int b = bySize[k];
+            int from = bucketStart[b], size = bucketStart[b + 1] - from;
+            if (size == 1)
+                break;
+
+            int seed = 0;
+            while (!tryPlace(hashes, members, from, size, seed, taken, slots)) {
+                if (++seed >= MAX_SEED)
+                    throw new IllegalStateException("No perfect hash seed for bucket of " + size + " terms");
+            }
+            displacements[b] = seed;
+            for (int m = 0; m < size; m++) {
+                int i = members[from + m];
+                taken[slots[m]] = true;
+                fingerprints[slots[m]] = fingerprint(hashes[i]);
+                idfs[slots[m]] = termIdfs[i];
+            }
+        }
+
+        // remaining buckets hold one term each: hand out the free slots directly
+        int free = 0;
+        for (; k < numFilledBuckets; k++) {
+            int b = bySize[k];
+            int i = members[bucketStart[b]];
+            while (taken[free])
+                free++;
+            taken[free] = true;
+            displacements[b] = -(free + 1);
+            fingerprints[free] = fingerprint(hashes[i]);
+            idfs[free] = termIdfs[i];
+        }
+
+        return new PerfectHashIdfDictionary(displacements, fingerprints, idfs, totalDocCount);
+    }
+
+    /* true (with slots filled in) if seed sends every term of the bucket to a distinct free slot */
+    private static boolean tryPlace(long[] hashes, int[] members, int from, int size, int seed,
+         boolean[] taken, int[] slots) {
+        int n = taken.length;
+        for (int m = 0; m < size; m++) {
+            int slot = slot(hashes[members[from + m]], seed, n);
+            if (taken[slot])
+                return false;
+            for (int prev = 0; prev < m; prev++) {
+                if (slots[prev] == slot)
+                    return false;
+            }
+            slots[m] = slot;
+        }
+        return true;
+    }
+
+    public int size() {
+        return idfs.length;
+    }
+
+    @Override
+    protected double lookup(String term) {
+        int n = idfs.length;
+        if (n == 0)
+            return Double.NaN;
+        long h = hash(term);
+        int d = displacements[bucket(h, displacements.length)];
+        int slot = d < 0 ? -d - 1 : slot(h, d, n);
+        return fingerprints[slot] == fingerprint(h) ? idfs[slot] : Double.NaN;
+    }
+
+    ///////////////////// Hashing ////////////////////////////
+
+    /* FNV-1a over the chars, finished with the murmur3 64-bit mixer */
+    private static long hash(String term) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < term.length(); i++) {
+            h ^= term.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static int bucket(long hash, int numBuckets) {
+        return (int) ((hash >>> 33) % numBuckets);
+    }
+
+    private static int slot(long hash, int seed, int n) {
+        return (int) ((mix(hash + seed * 0x9E3779B97F4A7C15L) >>> 1) % n);
+    }
+
+    private static int fingerprint(long hash) {
+        return (int) hash;
+    }
+}
@@ -8,6 +8,7 @@ import java.util.List;
 public class Query implements Comparable<Query>{
 	String query;
 	List<String> words; /* Words with no duplicates and all lower case */
+	int[] termIds = null; /* ids of words in a TermDictionary, set by intern() */
 	
 	public Query(String query) {
 		this.query = new String(query);
@@ -20,6 +21,13 @@ public class Query implements Comparable<Query>{
 		words = new ArrayList<String>(Arrays.asList(words_array));
 	}
 	
+	/* Assigns dictionary ids to the query words, in the same order as words */
+	public void intern(TermDictionary dict) {
+		termIds = new int[words.size()];
+		for (int i = 0; i < termIds.length; i++)
+			termIds[i] = dict.intern(words.get(i));
+	}
+
 	@Override
 	public int compareTo(Query arg0) {
 		return this.query.compareTo(arg0.query);
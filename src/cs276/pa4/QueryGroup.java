@@ -0,0 +1,16 @@
+package cs276.pa4;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class QueryGroup {
+
+	/* One query block of a signal file: the query and the documents listed under it */
+	Query query;
+	List<Document> documents;
+
+	public QueryGroup(Query query) {
+		this.query = query;
+		this.documents = new ArrayList<Document>();
+	}
+}
@@ -0,0 +1,88 @@
+package cs276.pa4;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts the words of one query in the fields of a Document.
+ *
+ * Built once per query. count() scans url, title, headers, body hits and
+ * anchors of a document in place, compares each token with the lower-cased
+ * query words char by char and accumulates into a buffer that is reused for
+ * every document, so no lower-cased copies, substrings, maps or boxed counts
+ * are created. Fields are split by a Tokenizer.
+ */
+public class QueryTermCounter {
+    /* field indexes, in Learner.TFTYPES order */
+    public static final int URL = 0, TITLE = 1, BODY = 2, HEADER = 3, ANCHOR = 4, NUM_FIELDS = 5;
+
+    private final String[] words;
+    private final double[][] counts;
+    private final Tokenizer urlTokens = Tokenizer.forUrl(true);
+    private final Tokenizer textTokens = Tokenizer.forText(true);
+
+    public QueryTermCounter(Query q) {
+        words = q.words.toArray(new String[q.words.size()]);
+        counts = new double[NUM_FIELDS][words.length];
+    }
+
+    /*
+     * Raw query term counts of d, as counts[field][k] for the k-th query
+     * word. The returned buffer is overwritten by the next call.
+     */
+    public double[][] count(Document d) {
+        for (double[] fieldCounts : counts) {
+            for (int k = 0; k < fieldCounts.length; k++)
+                fieldCounts[k] = 0;
+        }
+
+        countTokens(counts[URL], urlTokens, d.url, 1.0);
+        if (d.title != null)
+            countTokens(counts[TITLE], textTokens, d.title, 1.0);
+        if (d.body_hits != null) {
+            for (Map.Entry<String, List<Integer>> hit : d.body_hits.entrySet()) {
+                countTerm(counts[BODY], hit.getKey(), hit.getValue().size());
+            }
+        }
+        if (d.headers != null) {
+            for (int h = 0; h < d.headers.size(); h++)
+                countTokens(counts[HEADER], textTokens, d.headers.get(h), 1.0);
+        }
+        if (d.anchors != null) {
+            for (Map.Entry<String, Integer> anchor : d.anchors.entrySet())
+                countTokens(counts[ANCHOR], textTokens, anchor.getKey(), anchor.getValue());
+        }
+        return counts;
+    }
+
+    /* adds weight for every token of text that is a query word */
+    private void countTokens(double[] fieldCounts, Tokenizer tokens, String text, double weight) {
+        tokens.reset(text);
+        while (tokens.next()) {
+            for (int k = 0; k < words.length; k++) {
+                // query words have no duplicates
+                if (tokens.matches(words[k])) {
+                    fieldCounts[k] += weight;
+                    break;
+                }
+            }
+        }
+    }
+
+    /* adds weight if term, lower-cased, is a query word */
+    private void countTerm(double[] fieldCounts, String term, double weight) {
+        int length = term.length();
+        for (int k = 0; k < words.length; k++) {
+            String word = words[k];
+            if (word.length() != length)
+                continue;
+            int i = 0;
+            while (i < length && Character.toLowerCase(term.charAt(i)) == word.charAt(i))
+                i++;
+            if (i == length) {
+                fieldCounts[k] += weight;
+                return;
+            }
+        }
+    }
+}
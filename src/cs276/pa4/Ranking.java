@@ -0,0 +1,186 @@
+package cs276.pa4;
+
+/**
+ * Orders the documents of a query by score, on primitive arrays.
+ *
+ * Documents are identified by their index into scores. Higher scores come
+ * first; documents that tie on score are all kept and ordered by key
+ * (their url) and then by index, so the ranking never depends on hash or
+ * insertion order.
+ */
+public class Ranking {
+
+    /* decides, for a batch of pairs at once, which document of each ranks ahead */
+    public interface Preference {
+        /* sets ahead[k] to whether document a[k] ranks ahead of document b[k], for k < count */
+        void before(int[] a, int[] b, int count, boolean[] ahead);
+    }
+
+    private final double[] scores;
+    private final String[] keys;
+
+    /* keys break score ties; may be null to break them by index only */
+    public Ranking(double[] scores, String[] keys) {
+        if (keys != null && keys.length != scores.length)
+            throw new IllegalArgumentException("got " + keys.length + " keys for " + scores.length + " scores");
+        this.scores = scores;
+        this.keys = keys;
+    }
+
+    /* all indexes, best first (merge sort, O(n log n)) */
+    public int[] order() {
+        return order(scores.length, new Preference() {
+            @Override
+            public void before(int[] a, int[] b, int count, boolean[] ahead) {
+                for (int k = 0; k < count; k++)
+                    ahead[k] = Ranking.this.before(a[k], b[k]);
+            }
+        });
+    }
+
+    /* documents 0..n-1 ordered by preference, best first; see order(int[], Preference) */
+    public static int[] order(int n, Preference preference) {
+        return order(new int[] {0, n}, preference);
+    }
+
+    /*
+     * Orders documents 0..n-1, n = bounds[bounds.length - 1], within each
+     * group [bounds[g], bounds[g + 1]) by preference, best first. The sort
+     * is a stable bottom-up merge sort: a document only moves ahead of an
+     * earlier one it is preferred to. The merges of a level advance in
+     * lockstep across all groups, so preference is asked in batches, each
+     * holding the next comparison of every merge still running, and
+     * O(n log n) comparisons in all.
+     */
+    public static int[] order(int[] bounds, Preference preference) {
+        int n = bounds[bounds.length - 1];
+        int[] order = new int[n];
+        int widest = 0;
+        for (int i = 0; i < n; i++)
+            order[i] = i;
+        for (int g = 0; g + 1 < bounds.length; g++)
+            widest = Math.max(widest, bounds[g + 1] - bounds[g]);
+        int[] buffer = new int[n];
+
+        // merge m still has [left[m], mid[m]) and [right[m], hi[m]) of buffer to place at out[m]
+        int maxMerges = n / 2;
+        int[] left = new int[maxMerges], mid = new int[maxMerges];
+        int[] right = new int[maxMerges], hi = new int[maxMerges];
+        int[] out = new int[maxMerges];
+        int[] merging = new int[maxMerges];
+        int[] a = new int[maxMerges], b = new int[maxMerges];
+        boolean[] ahead = new boolean[maxMerges];
+
+        for (int width = 1; width < widest; width *= 2) {
+            System.arraycopy(order, 0, buffer, 0, n);
+            int numMerges = 0;
+            for (int g = 0; g + 1 < bounds.length; g++) {
+                int end = bounds[g + 1];
+                for (int lo = bounds[g]; lo < end - width; lo += 2 * width, numMerges++) {
+                    left[numMerges] = out[numMerges] = lo;
+                    mid[numMerges] = right[numMerges] = lo + width;
+                    hi[numMerges] = Math.min(lo + 2 * width, end);
+                }
+            }
+
+            while (true) {
+                int count = 0;
+                for (int m = 0; m < numMerges; m++) {
+                    if (left[m] < mid[m] && right[m] < hi[m]) {
+                        a[count] = buffer[right[m]];
+                        b[count] = buffer[left[m]];
+                        merging[count++] = m;
+                    }
+                }
+                if (count == 0)
+                    break;
+                preference.before(a, b, count, ahead);
+                for (int k = 0; k < count; k++) {
+                    int m = merging[k];
+                    order[out[m]++] = ahead[k] ? buffer[right[m]++] : buffer[left[m]++];
+                }
+            }
+
+            // one half of every merge is used up, the rest of the other follows
+            for (int m = 0; m < numMerges; m++) {
+                while (left[m] < mid[m])
+                    order[out[m]++] = buffer[left[m]++];
+                while (right[m] < hi[m])
+                    order[out[m]++] = buffer[right[m]++];
+            }
+        }
+        return order;
+    }
+
+    /* the best k indexes, best first, kept in a bounded min-heap (O(n log k)) */
+    public int[] top(int k) {
+        int n = scores.length;
+        if (k >= n)
+            return order();
+        if (k <= 0)
+            return new int[0];
+
+        // heap[0] is the worst of the best k seen so far
+        int[] heap = new int[k];
+        int size = 0;
+        for (int i = 0; i < n; i++) {
+            if (size < k) {
+                heap[size] = i;
+                siftUp(heap, size++);
+            } else if (before(i, heap[0])) {
+                heap[0] = i;
+                siftDown(heap, 0, k);
+            }
+        }
+
+        // popping the worst repeatedly fills the result from the back
+        int[] top = new int[k];
+        for (int last = k - 1; last >= 0; last--) {
+            top[last] = heap[0];
+            heap[0] = heap[last];
+            siftDown(heap, 0, last);
+        }
+        return top;
+    }
+
+    /* true if document a ranks ahead of document b */
+    private boolean before(int a, int b) {
+        int cmp = Double.compare(scores[b], scores[a]);
+        if (cmp == 0 && keys != null)
+            cmp = keys[a].compareTo(keys[b]);
+        if (cmp == 0)
+            cmp = a - b;
+        return cmp < 0;
+    }
+
+    /* min-heap on rank: the parent ranks behind its children */
+    private void siftUp(int[] heap, int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!before(heap[parent], heap[i]))
+                return;
+            swap(heap, parent, i);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int[] heap, int i, int size) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size)
+                return;
+            if (child + 1 < size && before(heap[child], heap[child + 1]))
+                child++;
+            if (!before(heap[i], heap[child]))
+                return;
+            swap(heap, i, child);
+            i = child;
+        }
+    }
+
+    private static void swap(int[] a, int i, int j) {
+        int t = a[i];
+        a[i] = a[j];
+        a[j] = t;
+    }
+}
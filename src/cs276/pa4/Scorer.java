@@ -0,0 +1,56 @@
+package cs276.pa4;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.functions.LibSVM;
+import weka.classifiers.functions.LinearRegression;
+
+/**
+ * Scores many rows of a FeatureMatrix in one call.
+ *
+ * forModel() compiles a trained model once: linear models (LinearRegression,
+ * LinearRankSVM and linear-kernel LibSVM) become a LinearScorer, a weight
+ * vector and bias applied column by column, and anything else falls back
+ * to calling the Weka classifier row by row. A LibSVM score is positive when the model
+ * predicts the second class value.
+ */
+public abstract class Scorer {
+
+    /* scores of rows [from, to) of matrix, in row order */
+    public abstract double[] score(FeatureMatrix matrix, int from, int to);
+
+    /* scores of every row of matrix */
+    public double[] score(FeatureMatrix matrix) {
+        return score(matrix, 0, matrix.numRows());
+    }
+
+    /* scorer for a model trained on rows laid out like matrix, whose class column is classIndex */
+    public static Scorer forModel(Classifier model, FeatureMatrix matrix, int classIndex) {
+        if (model instanceof LinearRegression) {
+            // one coefficient per attribute (0 for the class) and the intercept last
+            double[] coefficients = ((LinearRegression) model).coefficients();
+            double[] weights = new double[matrix.numAttributes()];
+            System.arraycopy(coefficients, 0, weights, 0, weights.length);
+            weights[classIndex] = 0;
+            return new LinearScorer(weights, coefficients[coefficients.length - 1]);
+        }
+        if (model instanceof LinearRankSVM) {
+            double[] weights = ((LinearRankSVM) model).getWeights();
+            weights[classIndex] = 0;
+            return new LinearScorer(weights, 0);
+        }
+        if (model instanceof LibSVM && isLinear((LibSVM) model)) {
+            // weights by attribute index, up to the last one used by a support vector, then -rho
+            double[] coefficients = ((LibSVM) model).orientedCoefficients();
+            double[] weights = new double[matrix.numAttributes()];
+            System.arraycopy(coefficients, 0, weights, 0, Math.min(weights.length, coefficients.length - 1));
+            weights[classIndex] = 0;
+            return new LinearScorer(weights, coefficients[coefficients.length - 1]);
+        }
+        return new ClassifierScorer(model, matrix.header("scoring_header", classIndex));
+    }
+
+    /* linear kernel on raw features; a normalized model's weights are in the scaled space */
+    private static boolean isLinear(LibSVM svm) {
+        return svm.getKernelType().getSelectedTag().getID() == LibSVM.KERNELTYPE_LINEAR && !svm.getNormalize();
+    }
+}
@@ -0,0 +1,446 @@
+package cs276.pa4;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import weka.classifiers.Classifier;
+import weka.core.Instances;
+
+/**
+ * Deterministic checks of the optimized code paths against brute-force
+ * references, on small fixed inputs.
+ *
+ * Each check prints what it compared and counts a failure for every
+ * mismatch; the exit status is 1 if any check failed.
+ *
+ * Usage: java cs276.pa4.SelfCheck [check ...]   (every check if none is named)
+ *   checks: ranksvm sortedpairs idf binary
+ */
+public class SelfCheck {
+    private int failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        SelfCheck check = new SelfCheck();
+        if (wanted(args, "ranksvm"))
+            check.rankSvm();
+        if (wanted(args, "sortedpairs"))
+            check.sortedPairs();
+        if (wanted(args, "idf"))
+            check.idf();
+        if (wanted(args, "binary"))
+            check.binarySignals();
+
+        System.out.println(check.failures == 0 ? "All checks passed" : check.failures + " check(s) failed");
+        System.exit(check.failures == 0 ? 0 : 1);
+    }
+
+    private static boolean wanted(String[] args, String name) {
+        if (args.length == 0)
+            return true;
+        for (String arg : args) {
+            if (arg.equals(name))
+                return true;
+        }
+        return false;
+    }
+
+    private void expect(boolean ok, String what) {
+        System.out.println((ok ? "  ok    " : "  FAIL  ") + what);
+        if (!ok)
+            failures++;
+    }
+
+    /////////////////////// LinearRankSVM ///////////////////////////
+
+    /*
+     * Trains LinearRankSVM on one toy query and checks its objective and
+     * gradient against sums over every pair, then compares its pairwise
+     * orderings with libsvm's linear SVM on the same pairs.
+     */
+    private void rankSvm() throws Exception {
+        System.out.println("ranksvm: truncated Newton vs brute force and libsvm");
+        FeatureMatrix matrix = toyQueries(1, 40, 5, new Random(23));
+        int labelColumn = matrix.numAttributes() - 1;
+
+        LinearRankSVM newton = new LinearRankSVM();
+        newton.setCost(1.0);
+        newton.train(new PairGenerator(matrix, labelColumn));
+        double[] w = newton.getWeights();
+
+        double[] g = new double[w.length];
+        double objective = pairObjective(matrix, labelColumn, w, 1.0, g);
+        expect(Math.abs(objective - newton.getObjective()) <= 1e-9 * Math.max(1, objective),
+            "objective " + newton.getObjective() + " equals the sum over all pairs " + objective);
+
+        double[] g0 = new double[w.length];
+        pairObjective(matrix, labelColumn, new double[w.length], 1.0, g0);
+        expect(norm(g) <= 1e-2 * norm(g0), "gradient norm " + norm(g) + " at the optimum is under 1% of " + norm(g0) + " at 0");
+
+        // libsvm's linear kernel on the same pairs, through the learner's own path
+        String solver = System.getProperty("pa4.linear.solver");
+        System.setProperty("pa4.linear.solver", "libsvm");
+        Classifier svm;
+        try {
+            Instances dataset = matrix.toInstances("toy", labelColumn);
+            svm = new PairwiseLearner(1.0, 0.0, true).training(dataset);
+        } finally {
+            if (solver == null)
+                System.clearProperty("pa4.linear.solver");
+            else
+                System.setProperty("pa4.linear.solver", solver);
+        }
+        double[] newtonScores = Scorer.forModel(newton, matrix, labelColumn).score(matrix);
+        double[] svmScores = Scorer.forModel(svm, matrix, labelColumn).score(matrix);
+
+        double newtonAgree = concordance(matrix.column(labelColumn), newtonScores, matrix.numRows());
+        double svmAgree = concordance(matrix.column(labelColumn), svmScores, matrix.numRows());
+        double bothAgree = concordance(newtonScores, svmScores, matrix.numRows());
+        expect(newtonAgree >= 0.9, "LinearRankSVM orders " + newtonAgree + " of the labelled pairs correctly");
+        expect(svmAgree >= 0.9, "libsvm orders " + svmAgree + " of the labelled pairs correctly");
+        expect(bothAgree >= 0.9, "LinearRankSVM and libsvm order " + bothAgree + " of all pairs the same way");
+    }
+
+    /*
+     * 1/2 |w|^2 + C * sum over pairs of max(0, 1 - w . (x_better - x_worse))^2,
+     * walking every two rows of each group; fills g with its gradient.
+     */
+    private static double pairObjective(FeatureMatrix matrix, int labelColumn, double[] w, double cost, double[] g) {
+        double loss = 0;
+        for (int c = 0; c < g.length; c++)
+            g[c] = w[c];
+        for (int grp = 0; grp < matrix.numGroups(); grp++) {
+            for (int i = matrix.groupStart(grp); i < matrix.groupEnd(grp); i++) {
+                for (int j = matrix.groupStart(grp); j < matrix.groupEnd(grp); j++) {
+                    if (matrix.get(i, labelColumn) <= matrix.get(j, labelColumn))
+                        continue;
+                    double margin = 0;
+                    for (int c = 0; c < w.length; c++) {
+                        if (c != labelColumn)
+                            margin += w[c] * (matrix.get(i, c) - matrix.get(j, c));
+                    }
+                    double slack = 1 - margin;
+                    if (slack <= 0)
+                        continue;
+                    loss += slack * slack;
+                    for (int c = 0; c < w.length; c++) {
+                        if (c != labelColumn)
+                            g[c] -= 2 * cost * slack * (matrix.get(i, c) - matrix.get(j, c));
+                    }
+                }
+            }
+        }
+        double ww = 0;
+        for (double v : w)
+            ww += v * v;
+        return 0.5 * ww + cost * loss;
+    }
+
+    /* of the row pairs that reference orders strictly, the fraction that scores orders the same way */
+    private static double concordance(double[] reference, double[] scores, int n) {
+        long pairs = 0, same = 0;
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                if (reference[i] <= reference[j])
+                    continue;
+                pairs++;
+                if (scores[i] > scores[j])
+                    same++;
+            }
+        }
+        return pairs == 0 ? 1 : (double) same / pairs;
+    }
+
+    private static double norm(double[] v) {
+        double sum = 0;
+        for (double x : v)
+            sum += x * x;
+        return Math.sqrt(sum);
+    }
+
+    /////////////////////// SortedPairLoss ///////////////////////////
+
+    /*
+     * Compares SortedPairLoss with the pair-by-pair sums over every pair
+     * PairGenerator enumerates, on random queries whose labels tie and
+     * whose half-integer scores tie and differ by exactly 1, the edges of
+     * the sorted walks.
+     */
+    private void sortedPairs() {
+        System.out.println("sortedpairs: SortedPairLoss vs every pair of PairGenerator");
+        Random random = new Random(24);
+        int trials = 300;
+        double lossError = 0, coefError = 0, hessianError = 0;
+        for (int t = 0; t < trials; t++) {
+            FeatureMatrix matrix = new FeatureMatrix("label");
+            int numQueries = 1 + random.nextInt(4);
+            int numGrades = 1 + random.nextInt(4);
+            for (int q = 0; q < numQueries; q++) {
+                matrix.startGroup("query " + q);
+                int size = 1 + random.nextInt(12);
+                for (int i = 0; i < size; i++)
+                    matrix.set(matrix.addRow(), 0, random.nextInt(numGrades));
+            }
+            int n = matrix.numRows();
+            double[] scores = new double[n], dScores = new double[n];
+            for (int r = 0; r < n; r++) {
+                scores[r] = 0.5 * (random.nextInt(9) - 4);
+                dScores[r] = random.nextGaussian();
+            }
+
+            PairGenerator pairs = new PairGenerator(matrix, 0);
+            double[] coef = new double[n], hessian = new double[n];
+            double loss = 0;
+            while (pairs.next()) {
+                int b = pairs.better(), o = pairs.worse();
+                double slack = 1 - (scores[b] - scores[o]);
+                if (slack > 0) {
+                    loss += slack * slack;
+                    coef[b] += slack;
+                    coef[o] -= slack;
+                }
+                if (scores[b] - scores[o] < 1) {
+                    hessian[b] += dScores[b] - dScores[o];
+                    hessian[o] -= dScores[b] - dScores[o];
+                }
+            }
+
+            SortedPairLoss sorted = new SortedPairLoss(matrix, 0);
+            double[] sortedCoef = new double[n], sortedHessian = new double[n];
+            lossError = Math.max(lossError, Math.abs(sorted.lossTerms(scores, sortedCoef) - loss) / Math.max(1, loss));
+            sorted.hessianTerms(scores, dScores, sortedHessian);
+            for (int r = 0; r < n; r++) {
+                coefError = Math.max(coefError, Math.abs(sortedCoef[r] - coef[r]));
+                hessianError = Math.max(hessianError, Math.abs(sortedHessian[r] - hessian[r]));
+            }
+        }
+        expect(lossError <= 1e-9, trials + " random matrices: loss within " + lossError);
+        expect(coefError <= 1e-9, trials + " random matrices: gradient coefficients within " + coefError);
+        expect(hessianError <= 1e-9, trials + " random matrices: Hessian coefficients within " + hessianError);
+    }
+
+    /////////////////////// Idf dictionaries ///////////////////////////
+
+    /*
+     * Loads one small df file through PerfectHashIdfDictionary, the
+     * MappedIdfDictionary store, Util.loadDFs and its query-driven
+     * variant, and checks every listed term against Util.idf of its df
+     * and every absent term against the smoothed default.
+     */
+    private void idf() throws IOException {
+        System.out.println("idf: PerfectHashIdfDictionary and MappedIdfDictionary vs Util.loadDFs");
+        File dir = Files.createTempDirectory("pa4-selfcheck").toFile();
+        File dfFile = new File(dir, "df.txt");
+        File storeFile = new File(dir, "df.txt" + MappedIdfDictionary.EXTENSION);
+        try {
+            Random random = new Random(8);
+            List<String> terms = new ArrayList<String>();
+            for (int i = 0; i < 500; i++)
+                terms.add("term" + i);
+            terms.addAll(Arrays.asList("a", "stanford.edu", "c++"));
+            // df files are read in the platform charset, so only the terms it can write
+            CharsetEncoder encoder = Charset.defaultCharset().newEncoder();
+            for (String term : new String[] {"\u00e9tude", "na\u00efve", "\u6771\u4eac"}) {
+                if (encoder.canEncode(term))
+                    terms.add(term);
+            }
+            double[] dfs = new double[terms.size()];
+            Writer out = new FileWriter(dfFile);
+            for (int i = 0; i < dfs.length; i++) {
+                dfs[i] = random.nextInt(5) == 0 ? 0 : 1 + random.nextInt(98998);
+                out.write(terms.get(i) + (i % 3 == 0 ? "\t" : " ") + (long) dfs[i] + "\n");
+            }
+            out.close();
+            String[] absent = {"term", "term5000", "term10x", "b", "etude", "\u6771", "", "TERM1"};
+
+            Util.IdfDictionary reference = Util.loadDFs(dfFile.getPath());
+            Util.IdfDictionary perfect = PerfectHashIdfDictionary.load(dfFile.getPath());
+            MappedIdfDictionary.build(dfFile.getPath(), storeFile.getPath());
+            Util.IdfDictionary mapped = MappedIdfDictionary.open(storeFile.getPath());
+            Set<String> wanted = new HashSet<String>(terms);
+            wanted.addAll(Arrays.asList(absent));
+            Util.IdfDictionary scanned = Util.loadDFs(dfFile.getPath(), wanted);
+
+            String[] names = {"Util.loadDFs", "PerfectHashIdfDictionary", "MappedIdfDictionary", "Util.loadDFs(terms)"};
+            Util.IdfDictionary[] dictionaries = {reference, perfect, mapped, scanned};
+            double smoothed = Math.log(Util.TOTAL_DOCUMENT_COUNT + 1);
+            for (int d = 0; d < dictionaries.length; d++) {
+                int wrong = 0;
+                for (int i = 0; i < dfs.length; i++) {
+                    if (dictionaries[d].getTermFreq(terms.get(i)) != Util.idf(dfs[i]))
+                        wrong++;
+                }
+                for (String term : absent) {
+                    if (dictionaries[d].getTermFreq(term) != smoothed || dictionaries[d].getTermFreq(term, false) != 0.0)
+                        wrong++;
+                }
+                expect(wrong == 0, names[d] + ": " + (dfs.length - wrong) + " of " + dfs.length
+                    + " terms map to their idf, absent terms smoothed (" + wrong + " wrong)");
+            }
+        } finally {
+            dfFile.delete();
+            storeFile.delete();
+            dir.delete();
+        }
+    }
+
+    /////////////////////// Binary signal files ///////////////////////////
+
+    private static final String DEV_SIGNAL_FILE = "data/pa4.signal.dev";
+
+    /*
+     * Converts a fixture of edge cases, and the dev signal file when it is
+     * there, with BinarySignalWriter and checks that BinarySignalReader
+     * gives back the groups MappedSignalReader parses from the text.
+     */
+    private void binarySignals() throws IOException {
+        System.out.println("binary: BinarySignalReader vs MappedSignalReader");
+        File dir = Files.createTempDirectory("pa4-selfcheck").toFile();
+        File fixture = new File(dir, "fixture.signal");
+        try {
+            // signal files are read in the platform charset, so only the terms it can write
+            CharsetEncoder encoder = Charset.defaultCharset().newEncoder();
+            String cafe = encoder.canEncode("caf\u00e9") ? "caf\u00e9" : "cafe";
+            String tokyo = encoder.canEncode("\u6771\u4eac") ? "\u6771\u4eac" : "tokyo";
+            Writer out = new FileWriter(fixture);
+            out.write("query: " + cafe + " Stanford " + tokyo + "\n"
+                + "  url: http://example.stanford.edu/url-only\n"
+                + "  url: http://example.stanford.edu/empty-fields\n"
+                + "    title:\n"
+                + "    header:\n"
+                + "    body_hits: stanford\n"
+                + "    body_length: 0\n"
+                + "    pagerank: 0\n"
+                + "    anchor_text:\n"
+                + "      stanford_anchor_count: 0\n"
+                + "  url: http://example.stanford.edu/" + cafe + "\n"
+                + "    title: " + cafe + " at stanford\n"
+                + "    header: " + tokyo + "\n"
+                + "    header: " + tokyo + "\n"
+                + "    body_hits: stanford 70000 3 2147483647 3 0\n"
+                + "    body_hits: " + cafe + " 1 2 127 128 16383 16384\n"
+                + "    body_hits: stanford 5\n"
+                + "    body_length: 2147483647\n"
+                + "    pagerank: 9\n"
+                + "    anchor_text: " + cafe + " " + tokyo + "\n"
+                + "      stanford_anchor_count: 300\n"
+                + "query: query without documents\n"
+                + "query: " + tokyo + "\n"
+                + "  url: http://example.stanford.edu/" + tokyo + "\n"
+                + "    body_hits: " + cafe + " 16384\n");
+            out.close();
+
+            roundTrip(fixture.getPath(), new File(dir, "fixture.bin").getPath());
+            if (new File(DEV_SIGNAL_FILE).exists())
+                roundTrip(DEV_SIGNAL_FILE, new File(dir, "dev.bin").getPath());
+            else
+                System.out.println("  skip  " + DEV_SIGNAL_FILE + " not found");
+        } finally {
+            for (File file : dir.listFiles())
+                file.delete();
+            dir.delete();
+        }
+    }
+
+    private void roundTrip(String signalFile, String binaryFile) throws IOException {
+        BinarySignalWriter.convert(signalFile, binaryFile);
+        expect(BinarySignalReader.isBinarySignalFile(binaryFile) && !BinarySignalReader.isBinarySignalFile(signalFile),
+            "only the converted " + signalFile + " is detected as binary");
+
+        SignalReader text = new MappedSignalReader(signalFile);
+        SignalReader binary = new BinarySignalReader(binaryFile);
+        int groups = 0, documents = 0, wrong = 0;
+        String firstWrong = null;
+        QueryGroup expected, actual;
+        do {
+            expected = text.next();
+            actual = binary.next();
+            if (expected == null || actual == null) {
+                if (expected != actual) {
+                    wrong++;
+                    if (firstWrong == null)
+                        firstWrong = "number of query groups";
+                }
+                break;
+            }
+            groups++;
+            String mismatch = groupMismatch(expected, actual);
+            if (mismatch != null) {
+                wrong++;
+                if (firstWrong == null)
+                    firstWrong = "\"" + expected.query + "\" " + mismatch;
+            }
+            documents += expected.documents.size();
+        } while (true);
+        text.close();
+        binary.close();
+        expect(wrong == 0, signalFile + ": " + groups + " query groups of " + documents + " documents read back equal"
+            + (firstWrong == null ? "" : ", first difference in " + firstWrong));
+    }
+
+    /* the first field where two groups differ, or null if they are equal */
+    private static String groupMismatch(QueryGroup expected, QueryGroup actual) {
+        if (!expected.query.query.equals(actual.query.query) || !expected.query.words.equals(actual.query.words))
+            return "query";
+        if (expected.documents.size() != actual.documents.size())
+            return "number of documents";
+        for (int i = 0; i < expected.documents.size(); i++) {
+            Document e = expected.documents.get(i), a = actual.documents.get(i);
+            String field = !equal(e.url, a.url) ? "url"
+                : !equal(e.title, a.title) ? "title"
+                : !equal(e.headers, a.headers) ? "headers"
+                : !equal(e.body_hits, a.body_hits) ? "body_hits"
+                : e.body_length != a.body_length ? "body_length"
+                : e.page_rank != a.page_rank ? "page_rank"
+                : !equal(e.anchors, a.anchors) ? "anchors"
+                : null;
+            if (field != null)
+                return field + " of " + e.url;
+        }
+        return null;
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /////////////////////// Fixtures ///////////////////////////
+
+    /*
+     * numQueries groups of size rows with numFeatures uniform features and
+     * a last label column of grades 0..3, graded on a fixed hidden linear
+     * score plus a little noise so that a linear ranker can learn them.
+     */
+    private static FeatureMatrix toyQueries(int numQueries, int size, int numFeatures, Random random) {
+        String[] names = new String[numFeatures + 1];
+        for (int c = 0; c < numFeatures; c++)
+            names[c] = "f" + c;
+        names[numFeatures] = "label";
+        FeatureMatrix matrix = new FeatureMatrix(names);
+        for (int q = 0; q < numQueries; q++) {
+            matrix.startGroup("query " + q);
+            for (int i = 0; i < size; i++) {
+                int row = matrix.addRow("http://toy/" + q + "/" + i);
+                double hidden = 0;
+                for (int c = 0; c < numFeatures; c++) {
+                    double x = random.nextDouble();
+                    matrix.set(row, c, x);
+                    hidden += (c + 1) * x;
+                }
+                hidden = hidden / (numFeatures * (numFeatures + 1) / 2.0) + 0.05 * random.nextGaussian();
+                matrix.set(row, numFeatures, Math.max(0, Math.min(3, Math.floor(4 * hidden))));
+            }
+        }
+        return matrix;
+    }
+}
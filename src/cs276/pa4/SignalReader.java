@@ -0,0 +1,27 @@
+package cs276.pa4;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Pull-style source of query groups from a signal file.
+ * Call next() until it returns null, then close().
+ */
+public abstract class SignalReader implements Closeable {
+    protected int numQuery = 0;
+    protected int numDoc = 0;
+
+    /*
+     * Returns the next query with all of its documents,
+     * or null once the end of the input has been reached.
+     */
+    public abstract QueryGroup next() throws IOException;
+
+    public int getNumQueries() {
+        return numQuery;
+    }
+
+    public int getNumDocuments() {
+        return numDoc;
+    }
+}
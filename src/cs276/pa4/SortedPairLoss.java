@@ -0,0 +1,177 @@
+package cs276.pa4;
+
+import java.util.Arrays;
+
+/**
+ * Squared pairwise hinge terms over all preference pairs of a
+ * FeatureMatrix, in O(n log n) per query instead of O(n^2).
+ *
+ * Document i is paired with every j of the same query with a lower label,
+ * and the pair is violated when s_i - s_j < 1. Violation is monotone in
+ * the scores: walking the documents of a query from the best score down,
+ * the partners that violate a pair with i are a prefix of that same walk.
+ * So one pointer inserts documents into a Fenwick tree keyed by label
+ * grade as the walk goes, and each document's terms are a prefix query
+ * over the grades below its own. The tree keeps the count, sum and sum of
+ * squares of the inserted values, which is all the squared hinge needs.
+ * A second walk from the worst score up gives each document's terms as
+ * the worse one of a pair.
+ *
+ * The terms match LinearRankSVM's pair-by-pair loops exactly, up to
+ * rounding; see there for what they mean.
+ */
+public class SortedPairLoss {
+    private final FeatureMatrix matrix;
+    private final int[] grades;    // grade of each row within its query, 0 = lowest label
+    private final int[] numGrades; // distinct labels of each query
+
+    private final GradeTree tree;
+
+    public SortedPairLoss(FeatureMatrix matrix, int labelColumn) {
+        this.matrix = matrix;
+        this.grades = new int[matrix.numRows()];
+        this.numGrades = new int[matrix.numGroups()];
+
+        double[] labels = matrix.column(labelColumn);
+        int maxGrades = 0;
+        for (int g = 0; g < matrix.numGroups(); g++) {
+            int start = matrix.groupStart(g), end = matrix.groupEnd(g);
+            double[] distinct = Arrays.copyOfRange(labels, start, end);
+            Arrays.sort(distinct);
+            int k = 0;
+            for (int i = 0; i < distinct.length; i++) {
+                if (i == 0 || distinct[i] != distinct[k - 1])
+                    distinct[k++] = distinct[i];
+            }
+            for (int r = start; r < end; r++)
+                grades[r] = Arrays.binarySearch(distinct, 0, k, labels[r]);
+            numGrades[g] = k;
+            maxGrades = Math.max(maxGrades, k);
+        }
+        tree = new GradeTree(maxGrades);
+    }
+
+    /*
+     * Sum over violated pairs of (1 - (s_better - s_worse))^2. Fills
+     * coef[r] with the sum of the slacks of r's violated pairs, positive
+     * where r is the better document and negative where it is the worse.
+     */
+    public double lossTerms(double[] scores, double[] coef) {
+        Arrays.fill(coef, 0.0);
+        double loss = 0;
+        for (int g = 0; g < matrix.numGroups(); g++) {
+            int[] order = byScore(g, scores);
+            int size = order.length;
+            // slacks are differences, so values are taken relative to the best score
+            double ref = size > 0 ? scores[order[0]] : 0;
+
+            // as the better document: partners have a lower grade
+            tree.reset(numGrades[g]);
+            for (int a = 0, p = 0; a < size; a++) {
+                int i = order[a];
+                for (; p < size && scores[i] - scores[order[p]] < 1; p++)
+                    tree.add(grades[order[p]], scores[order[p]] - ref);
+                tree.sum(0, grades[i]);
+                double base = 1 - (scores[i] - ref); // slack = base + (s_j - ref)
+                loss += tree.count * base * base + 2 * base * tree.sum + tree.sumSq;
+                coef[i] += tree.count * base + tree.sum;
+            }
+
+            // as the worse document: partners have a higher grade
+            tree.reset(numGrades[g]);
+            for (int a = size - 1, p = size - 1; a >= 0; a--) {
+                int j = order[a];
+                for (; p >= 0 && scores[order[p]] - scores[j] < 1; p--)
+                    tree.add(grades[order[p]], scores[order[p]] - ref);
+                tree.sum(grades[j] + 1, numGrades[g]);
+                coef[j] -= tree.count * (1 + (scores[j] - ref)) - tree.sum;
+            }
+        }
+        return loss;
+    }
+
+    /*
+     * For a direction with document scores dScores, fills coef[r] with
+     * the sum over r's violated pairs (at scores) of the pairs' direction
+     * differences, signed as in lossTerms.
+     */
+    public void hessianTerms(double[] scores, double[] dScores, double[] coef) {
+        Arrays.fill(coef, 0.0);
+        for (int g = 0; g < matrix.numGroups(); g++) {
+            int[] order = byScore(g, scores);
+            int size = order.length;
+
+            tree.reset(numGrades[g]);
+            for (int a = 0, p = 0; a < size; a++) {
+                int i = order[a];
+                for (; p < size && scores[i] - scores[order[p]] < 1; p++)
+                    tree.add(grades[order[p]], dScores[order[p]]);
+                tree.sum(0, grades[i]);
+                coef[i] += tree.count * dScores[i] - tree.sum;
+            }
+
+            tree.reset(numGrades[g]);
+            for (int a = size - 1, p = size - 1; a >= 0; a--) {
+                int j = order[a];
+                for (; p >= 0 && scores[order[p]] - scores[j] < 1; p--)
+                    tree.add(grades[order[p]], dScores[order[p]]);
+                tree.sum(grades[j] + 1, numGrades[g]);
+                coef[j] -= tree.sum - tree.count * dScores[j];
+            }
+        }
+    }
+
+    /* rows of group g, best score first */
+    private int[] byScore(int g, double[] scores) {
+        int start = matrix.groupStart(g);
+        int[] order = new Ranking(Arrays.copyOfRange(scores, start, matrix.groupEnd(g)), null).order();
+        for (int a = 0; a < order.length; a++)
+            order[a] += start;
+        return order;
+    }
+
+    /* Fenwick tree over grades of the count, sum and sum of squares of added values */
+    private static class GradeTree {
+        private final double[] counts, sums, sumSqs;
+        private int size;
+
+        // results of the last sum()
+        double count, sum, sumSq;
+
+        GradeTree(int capacity) {
+            counts = new double[capacity + 1];
+            sums = new double[capacity + 1];
+            sumSqs = new double[capacity + 1];
+        }
+
+        void reset(int numGrades) {
+            size = numGrades;
+            Arrays.fill(counts, 0, size + 1, 0.0);
+            Arrays.fill(sums, 0, size + 1, 0.0);
+            Arrays.fill(sumSqs, 0, size + 1, 0.0);
+        }
+
+        void add(int grade, double value) {
+            for (int k = grade + 1; k <= size; k += k & -k) {
+                counts[k]++;
+                sums[k] += value;
+                sumSqs[k] += value * value;
+            }
+        }
+
+        /* totals over grades [from, to) */
+        void sum(int from, int to) {
+            count = sum = sumSq = 0;
+            for (int k = to; k > 0; k -= k & -k) {
+                count += counts[k];
+                sum += sums[k];
+                sumSq += sumSqs[k];
+            }
+            for (int k = from; k > 0; k -= k & -k) {
+                count -= counts[k];
+                sum -= sums[k];
+                sumSq -= sumSqs[k];
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package cs276.pa4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Assigns dense int ids to terms, in order of first appearance.
+ *
+ * Terms are kept in an open-addressing table of ids keyed by
+ * String.hashCode, so a token from a Tokenizer can be looked up in place
+ * and only becomes a String the first time it is seen.
+ */
+public class TermDictionary {
+    private List<String> terms = new ArrayList<String>();
+    private int[] hashes = new int[16]; // hash of each term, by id
+    private int[] table = newTable(16); // term ids, -1 for an empty slot
+
+    /* id of term, adding it to the dictionary if it is new */
+    public int intern(String term) {
+        int hash = term.hashCode();
+        int slot = find(term, hash);
+        if (table[slot] < 0)
+            return add(term, hash, slot);
+        return table[slot];
+    }
+
+    /* id of the current token of t, adding it to the dictionary if it is new */
+    public int intern(Tokenizer t) {
+        int hash = t.tokenHash();
+        int slot = find(t, hash);
+        if (table[slot] < 0)
+            return add(t.token(), hash, slot);
+        return table[slot];
+    }
+
+    /* id of term, or -1 if it has never been interned */
+    public int getId(String term) {
+        return table[find(term, term.hashCode())];
+    }
+
+    public String getTerm(int id) {
+        return terms.get(id);
+    }
+
+    public int size() {
+        return terms.size();
+    }
+
+    /* slot holding term, or the empty slot where it belongs */
+    private int find(String term, int hash) {
+        int mask = table.length - 1;
+        int slot = mix(hash) & mask;
+        while (table[slot] >= 0) {
+            int id = table[slot];
+            if (hashes[id] == hash && terms.get(id).equals(term))
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private int find(Tokenizer t, int hash) {
+        int mask = table.length - 1;
+        int slot = mix(hash) & mask;
+        while (table[slot] >= 0) {
+            int id = table[slot];
+            if (hashes[id] == hash && t.matches(terms.get(id)))
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private int add(String term, int hash, int slot) {
+        int id = terms.size();
+        terms.add(term);
+        if (id == hashes.length)
+            hashes = Arrays.copyOf(hashes, 2 * id);
+        hashes[id] = hash;
+        table[slot] = id;
+        // keep the table at most half full
+        if (2 * terms.size() > table.length)
+            rehash();
+        return id;
+    }
+
+    private void rehash() {
+        table = newTable(2 * table.length);
+        int mask = table.length - 1;
+        for (int id = 0; id < terms.size(); id++) {
+            int slot = mix(hashes[id]) & mask;
+            while (table[slot] >= 0)
+                slot = (slot + 1) & mask;
+            table[slot] = id;
+        }
+    }
+
+    private static int[] newTable(int size) {
+        int[] table = new int[size];
+        Arrays.fill(table, -1);
+        return table;
+    }
+
+    /* spreads String hashes, whose low bits are weak for short terms */
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
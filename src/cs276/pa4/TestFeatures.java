@@ -9,6 +9,9 @@ public class TestFeatures {
 	/* Test features */
 	Instances features;	
 	
+	/* The same features in columns, row for row */
+	FeatureMatrix matrix;
+	
 	/* Associate query-doc pair to its index within FEATURES instances
 	 * {query -> {doc -> index}}
 	 * 
@@ -0,0 +1,128 @@
+package cs276.pa4;
+
+/**
+ * Splits field text into tokens without creating substrings.
+ *
+ * A hand-written replacement for the regex splits of the PA3 code: urls
+ * split on non-word characters (\W+, checked after lower-casing), all other
+ * fields on whitespace (\s+). The tokenizer walks a String and exposes the
+ * current token as a span, optionally lower-cased on the fly, so callers
+ * can compare or hash tokens in place and only materialize the ones they
+ * keep. Like String.split, a text that is empty or starts with a delimiter
+ * yields one leading empty token.
+ *
+ * Instances are reusable but not thread-safe.
+ *
+ * Usage:
+ *   Tokenizer t = Tokenizer.forText(true);
+ *   t.reset(title);
+ *   while (t.next())
+ *     if (t.matches(word)) ...
+ */
+public class Tokenizer {
+    private final boolean url;
+    private final boolean lowerCase;
+
+    private String text = "";
+    private int pos = 0;
+    private int start = 0;
+    private int end = 0;
+    private boolean leadingEmpty = false;
+
+    private Tokenizer(boolean url, boolean lowerCase) {
+        this.url = url;
+        this.lowerCase = lowerCase;
+    }
+
+    /* splits on \W+ after lower-casing, like url.toLowerCase().split("\\W+") */
+    public static Tokenizer forUrl(boolean lowerCase) {
+        return new Tokenizer(true, lowerCase);
+    }
+
+    /* splits on \s+, like text.split("\\s+") */
+    public static Tokenizer forText(boolean lowerCase) {
+        return new Tokenizer(false, lowerCase);
+    }
+
+    public Tokenizer reset(String text) {
+        this.text = text;
+        pos = 0;
+        start = end = 0;
+        leadingEmpty = text.isEmpty() || isDelimiter(text.charAt(0));
+        return this;
+    }
+
+    /* advances to the next token; false once the text is exhausted */
+    public boolean next() {
+        if (leadingEmpty) {
+            leadingEmpty = false;
+            start = end = 0;
+            return true;
+        }
+        int n = text.length();
+        while (pos < n && isDelimiter(text.charAt(pos)))
+            pos++;
+        if (pos == n)
+            return false;
+        start = pos;
+        while (pos < n && !isDelimiter(text.charAt(pos)))
+            pos++;
+        end = pos;
+        return true;
+    }
+
+    public int start() {
+        return start;
+    }
+
+    public int end() {
+        return end;
+    }
+
+    public int length() {
+        return end - start;
+    }
+
+    /* i-th char of the current token, lower-cased if requested */
+    public char charAt(int i) {
+        char c = text.charAt(start + i);
+        return lowerCase ? Character.toLowerCase(c) : c;
+    }
+
+    /* true if the current token equals word */
+    public boolean matches(String word) {
+        int length = end - start;
+        if (word.length() != length)
+            return false;
+        for (int i = 0; i < length; i++) {
+            if (charAt(i) != word.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    /* same value as token().hashCode(), without building the String */
+    public int tokenHash() {
+        int h = 0;
+        for (int i = 0; i < end - start; i++)
+            h = 31 * h + charAt(i);
+        return h;
+    }
+
+    /* the current token as a String */
+    public String token() {
+        int length = end - start;
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++)
+            chars[i] = charAt(i);
+        return new String(chars);
+    }
+
+    private boolean isDelimiter(char c) {
+        if (url) {
+            c = Character.toLowerCase(c);
+            return !((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '_');
+        }
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+}
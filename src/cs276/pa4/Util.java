@@ -4,115 +4,126 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class Util {
 
   public static class IdfDictionary {
     private Map<String, Double> dfs;
-    private double totalDocCount;
+    protected double totalDocCount;
 
     public IdfDictionary(Map<String, Double> dfs, double totalDocCount) {
         this.dfs = dfs;
         this.totalDocCount = totalDocCount;
     }
 
+    /* for subclasses that keep their idfs somewhere other than a map */
+    protected IdfDictionary(double totalDocCount) {
+        this.totalDocCount = totalDocCount;
+    }
+
     // by default, offer normalization
     public double getTermFreq(String term) {
         return getTermFreq(term, true);
     }
 
     public double getTermFreq(String term, boolean useSmoothing) {
-        double freq = 0.0;
-        if (dfs.containsKey(term))
-            freq = dfs.get(term);
-        else
-            if (useSmoothing)
-                freq = Math.log(totalDocCount + 1);
+        double freq = lookup(term);
+        if (Double.isNaN(freq))
+            freq = useSmoothing ? Math.log(totalDocCount + 1) : 0.0;
         return freq;
     }
 
+    /* stored value for term, or NaN if the term is unknown */
+    protected double lookup(String term) {
+        Double freq = dfs.get(term);
+        return freq == null ? Double.NaN : freq;
+    }
+
+  }
+
+  /* number of loader threads, overridable with -Dpa4.load.threads=N */
+  public static int defaultLoadParallelism() {
+    return Integer.getInteger("pa4.load.threads", Runtime.getRuntime().availableProcessors());
   }
 
   public static Map<Query,List<Document>> loadTrainData (String feature_file_name) throws Exception {
-    Map<Query, List<Document>> result = new HashMap<Query, List<Document>>();
+    return loadTrainData(feature_file_name, defaultLoadParallelism());
+  }
 
+  /* Parses the query blocks of the signal file on up to parallelism threads */
+  public static Map<Query,List<Document>> loadTrainData (String feature_file_name, int parallelism) throws Exception {
     File feature_file = new File(feature_file_name);
     if (!feature_file.exists() ) {
       System.err.println("Invalid feature file name: " + feature_file_name);
       return null;
     }
 
-    BufferedReader reader = new BufferedReader(new FileReader(feature_file));
-    String line = null, anchor_text = null;
-    Query query = null;
-    Document doc = null;
-    int numQuery=0; int numDoc=0;
-    while ((line = reader.readLine()) != null) {
-      String[] tokens = line.split(":", 2);
-      String key = tokens[0].trim();
-      String value = tokens[1].trim();
+    if (BinarySignalReader.isBinarySignalFile(feature_file_name))
+      return loadBinaryData(feature_file_name);
 
-      if (key.equals("query")){
-        query = new Query(value);
-        numQuery++;
-        result.put(query, new ArrayList<Document>());
-      } else if (key.equals("url")) {
-        doc = new Document();
-        doc.url = new String(value);
-        result.get(query).add(doc);
-        numDoc++;
-      } else if (key.equals("title")) {
-        doc.title = new String(value);
-      } else if (key.equals("header"))
-      {
-        if (doc.headers == null)
-          doc.headers =  new ArrayList<String>();
-        doc.headers.add(value);
-      } else if (key.equals("body_hits")) {
-        if (doc.body_hits == null)
-          doc.body_hits = new HashMap<String, List<Integer>>();
-        String[] temp = value.split(" ", 2);
-        String term = temp[0].trim();
-        List<Integer> positions_int;
-
-        if (!doc.body_hits.containsKey(term))
-        {
-          positions_int = new ArrayList<Integer>();
-          doc.body_hits.put(term, positions_int);
-        } else
-          positions_int = doc.body_hits.get(term);
-
-        String[] positions = temp[1].trim().split(" ");
-        for (String position : positions)
-          positions_int.add(Integer.parseInt(position));
-
-      } else if (key.equals("body_length"))
-        doc.body_length = Integer.parseInt(value);
-      else if (key.equals("pagerank"))
-        doc.page_rank = Integer.parseInt(value);
-      else if (key.equals("anchor_text")) {
-        anchor_text = value;
-        if (doc.anchors == null)
-          doc.anchors = new HashMap<String, Integer>();
-      }
-      else if (key.equals("stanford_anchor_count"))
-        doc.anchors.put(anchor_text, Integer.parseInt(value));      
-    }
+    Map<Query, List<Document>> result = new HashMap<Query, List<Document>>();
+    SignalReader reader = new ParallelSignalReader(feature_file_name, parallelism);
+    QueryGroup group;
+    while ((group = reader.next()) != null)
+      result.put(group.query, group.documents);
+    reader.close();
+    System.err.println("# Signal file " + feature_file_name + ": number of queries=" + reader.getNumQueries() + ", number of documents=" + reader.getNumDocuments());
 
+    return result;
+  }
+
+  /* Loads a signal file converted by BinarySignalWriter */
+  public static Map<Query,List<Document>> loadBinaryData (String binary_file_name) throws IOException {
+    Map<Query, List<Document>> result = new HashMap<Query, List<Document>>();
+
+    BinarySignalReader reader = new BinarySignalReader(binary_file_name);
+    QueryGroup group;
+    while ((group = reader.next()) != null) {
+      result.put(group.query, group.documents);
+    }
     reader.close();
-    System.err.println("# Signal file " + feature_file_name + ": number of queries=" + numQuery + ", number of documents=" + numDoc);
+    System.err.println("# Binary signal file " + binary_file_name + ": number of queries=" + reader.getNumQueries() + ", number of documents=" + reader.getNumDocuments());
 
     return result;
   }
 
-  public static IdfDictionary loadDFs(String dfFile) throws IOException {
+  /*
+   * Streaming alternative to loadTrainData: hands out one query group at
+   * a time. Text files are parsed on defaultLoadParallelism() threads.
+   */
+  public static SignalReader openSignalFile(String feature_file_name) throws IOException {
+    return openSignalFile(feature_file_name, defaultLoadParallelism());
+  }
+
+  public static SignalReader openSignalFile(String feature_file_name, int parallelism) throws IOException {
+    File feature_file = new File(feature_file_name);
+    if (!feature_file.exists() ) {
+      System.err.println("Invalid feature file name: " + feature_file_name);
+      return null;
+    }
+    if (BinarySignalReader.isBinarySignalFile(feature_file_name))
+      return new BinarySignalReader(feature_file_name);
+    if (parallelism > 1)
+      return new ParallelSignalReader(feature_file_name, parallelism);
+    return new MappedSignalReader(feature_file_name);
+  }
+
+  // based on Piazza post @574
+  public static final double TOTAL_DOCUMENT_COUNT = 98998;
+
+  /* term -> raw document frequency, as listed in dfFile */
+  public static Map<String, Double> readDFs(String dfFile) throws IOException {
     Map<String,Double> dfs = new HashMap<String, Double>();
-    // based on Piazza post @574
-    double totalDocumentCount = 98998;
 
     BufferedReader br = new BufferedReader(new FileReader(dfFile));
     String line;
@@ -123,16 +134,134 @@ public class Util {
       dfs.put(tokens[0], Double.parseDouble(tokens[1]));
     }
     br.close();
+    return dfs;
+  }
+
+  public static double idf(double df) {
+    return Math.log((TOTAL_DOCUMENT_COUNT + 1.0) / (df + 1.0));
+  }
+
+  public static IdfDictionary loadDFs(String dfFile) throws IOException {
+    Map<String,Double> dfs = readDFs(dfFile);
 
     // create idf from dfs
     Map<String, Double> idfs = new HashMap<String, Double>(dfs.keySet().size());
     for (String term : dfs.keySet()) {
-        double freq = dfs.get(term);
-        double idf = Math.log((totalDocumentCount + 1.0) / (freq + 1.0));
-        idfs.put(term, idf);
+        idfs.put(term, idf(dfs.get(term)));
+    }
+
+    return new IdfDictionary(idfs, TOTAL_DOCUMENT_COUNT);
+  }
+
+  /*
+   * Query-driven variant of loadDFs: keeps only the idfs of terms.
+   * dfFile is scanned once as raw bytes and a line is only decoded
+   * when the hash of its term matches one of the wanted terms, so the
+   * cost is a memory scan rather than parsing 347k entries. Terms that
+   * are not in dfFile are smoothed as usual.
+   */
+  public static IdfDictionary loadDFs(String dfFile, Set<String> terms) throws IOException {
+    int[] wanted = new int[terms.size()];
+    int w = 0;
+    for (String term : terms)
+      wanted[w++] = term.hashCode();
+    Arrays.sort(wanted);
+
+    // mapped rather than read onto the heap; a single mapping covers up to 2 GB
+    ByteBuffer bytes;
+    RandomAccessFile file = new RandomAccessFile(dfFile, "r");
+    try {
+      if (file.length() > Integer.MAX_VALUE)
+        throw new IOException(dfFile + " is " + file.length() + " bytes, more than can be mapped at once");
+      bytes = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+    } finally {
+      file.close();
+    }
+
+    Map<String, Double> idfs = new HashMap<String, Double>();
+    byte[] lineBytes = new byte[256];
+    int length = bytes.limit();
+    int pos = 0;
+    while (pos < length) {
+      // hash the first token of the line the way String.hashCode would
+      int lineStart = pos;
+      while (pos < length && bytes.get(pos) != '\n' && bytes.get(pos) >= 0 && bytes.get(pos) <= ' ')
+        pos++;
+      int hash = 0;
+      boolean ascii = true;
+      boolean empty = true;
+      while (pos < length && (bytes.get(pos) > ' ' || bytes.get(pos) < 0)) {
+        byte b = bytes.get(pos++);
+        hash = 31 * hash + b;
+        ascii &= b >= 0;
+        empty = false;
+      }
+      while (pos < length && bytes.get(pos) != '\n')
+        pos++;
+      int lineEnd = pos++;
+      if (empty || (ascii && Arrays.binarySearch(wanted, hash) < 0))
+        continue;
+
+      // decode with the same charset FileReader uses in readDFs
+      int lineLength = lineEnd - lineStart;
+      if (lineBytes.length < lineLength)
+        lineBytes = new byte[Math.max(lineLength, 2 * lineBytes.length)];
+      bytes.position(lineStart);
+      bytes.get(lineBytes, 0, lineLength);
+      String line = new String(lineBytes, 0, lineLength, Charset.defaultCharset()).trim();
+      String[] tokens = line.split("\\s+");
+      if (terms.contains(tokens[0]))
+        idfs.put(tokens[0], idf(Double.parseDouble(tokens[1])));
     }
 
-    return new IdfDictionary(idfs, totalDocumentCount);
+    System.err.println("# Loaded " + idfs.size() + " of " + terms.size() + " query term idfs from " + dfFile);
+    return new IdfDictionary(idfs, TOTAL_DOCUMENT_COUNT);
+  }
+
+  /* lower-cased words of every query in a signal file (text or binary) */
+  public static Set<String> loadQueryTerms(String feature_file_name) throws IOException {
+    Set<String> terms = new HashSet<String>();
+    if (BinarySignalReader.isBinarySignalFile(feature_file_name)) {
+      SignalReader reader = new BinarySignalReader(feature_file_name);
+      QueryGroup group;
+      while ((group = reader.next()) != null)
+        terms.addAll(group.query.words);
+      reader.close();
+      return terms;
+    }
+
+    BufferedReader reader = new BufferedReader(new FileReader(feature_file_name));
+    String line;
+    while ((line = reader.readLine()) != null) {
+      if (line.startsWith("query:"))
+        terms.addAll(new Query(line.substring(6).trim()).words);
+    }
+    reader.close();
+    return terms;
+  }
+
+  /*
+   * Opens the memory-mapped idf store for dfFile (dfFile + ".idf"),
+   * building it first if it is missing, older than dfFile or does not
+   * open. Falls back to loadDFs when the store cannot be written.
+   */
+  public static IdfDictionary loadIdfs(String dfFile) throws IOException {
+    File df = new File(dfFile);
+    File store = new File(dfFile + MappedIdfDictionary.EXTENSION);
+    if (store.exists() && store.lastModified() >= df.lastModified()) {
+      try {
+        return MappedIdfDictionary.open(store.getPath());
+      } catch (IOException e) {
+        System.err.println("# Rebuilding idf store " + store + ": " + e.getMessage());
+      }
+    }
+    try {
+      MappedIdfDictionary.build(dfFile, store.getPath());
+    } catch (IOException e) {
+      System.err.println("# Could not build idf store " + store + " (" + e.getMessage() + "), reading " + dfFile);
+      return loadDFs(dfFile);
+    }
+    return MappedIdfDictionary.open(store.getPath());
   }
 
   /* query -> (url -> score) */
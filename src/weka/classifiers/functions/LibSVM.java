@@ -53,6 +53,7 @@ import java.util.Vector;
 
 import libsvm.svm_model;
 import libsvm.svm_node;
+import libsvm.svm_problem;
 
 /*
  * Modifications by FracPete:
@@ -1680,6 +1681,57 @@ public class LibSVM
       vy.addElement(new Double(inst.classValue()));
     }
     
+    train(getProblem(vx, vy), max_index);
+  }
+
+  /**
+   * Trains on a libsvm problem built by the caller, e.g. from rows that
+   * are generated on the fly and never become Weka instances. The rows
+   * must be laid out like the attributes of the header (libsvm index =
+   * attribute index + 1, class attribute left out), hold the class value
+   * index in y and have no missing values. Normalization is not
+   * available, since it is fitted on the instances.
+   *
+   * @param header	the format of the rows, may be empty
+   * @param problem	the libsvm svm_problem with the training rows
+   * @throws Exception  if libsvm classes not in classpath or libsvm
+   *                    encountered a problem
+   */
+  public void buildClassifier(Instances header, svm_problem problem) throws Exception {
+    m_Filter = null;
+
+    if (!isPresent())
+      throw new Exception("libsvm classes not in CLASSPATH!");
+    if (getNormalize())
+      throw new Exception("Cannot normalize a prebuilt svm_problem!");
+
+    // the filters are only set up, so that instances can be classified later
+    header = new Instances(header, 0);
+    if (!getDoNotReplaceMissingValues()) {
+      m_ReplaceMissingValues = new ReplaceMissingValues();
+      m_ReplaceMissingValues.setInputFormat(header);
+    }
+    m_NominalToBinary = new NominalToBinary();
+    m_NominalToBinary.setInputFormat(header);
+
+    int max_index = 0;
+    for (int d = 0; d < problem.l; d++) {
+      svm_node[] x = problem.x[d];
+      if (x.length > 0)
+        max_index = Math.max(max_index, x[x.length - 1].index);
+    }
+
+    train(problem, max_index);
+  }
+
+  /**
+   * Trains the libsvm model on a svm_problem.
+   *
+   * @param problem	the svm_problem object
+   * @param max_index	the largest attribute index used by the problem
+   * @throws Exception  if libsvm encountered a problem
+   */
+  protected void train(Object problem, int max_index) throws Exception {
     // calculate actual gamma
     if (getGamma() == 0)
       m_GammaActual = 1.0 / max_index;
@@ -1694,7 +1746,7 @@ public class LibSVM
           Class.forName(CLASS_SVMPROBLEM), 
           Class.forName(CLASS_SVMPARAMETER)},
         new Object[]{
-          getProblem(vx, vy), 
+          problem, 
           getParameters()});
     
     if (error_msg != null)
@@ -1714,7 +1766,7 @@ public class LibSVM
           Class.forName(CLASS_SVMPROBLEM), 
           Class.forName(CLASS_SVMPARAMETER)},
         new Object[]{
-          getProblem(vx, vy), 
+          problem, 
           getParameters()});
     
     // save internal model?
@@ -1774,6 +1826,23 @@ public class LibSVM
     
     return w;
   }
+
+  /**
+   * Same weights as coefficients(), with the sign fixed so that a positive
+   * w . x + intercept predicts the second class value (index 1).
+   * 
+   * @return the weights array contains (number of features + 1) coefficients. 
+   */
+  public double[] orientedCoefficients() {
+    double[] w = coefficients();
+    // libsvm predicts label[0] when the decision value is positive
+    if (((svm_model) m_Model).label[0] == 0) {
+      for (int i = 0; i < w.length; i++) {
+        w[i] = -w[i];
+      }
+    }
+    return w;
+  }
     
   /**
    * returns a string representation.